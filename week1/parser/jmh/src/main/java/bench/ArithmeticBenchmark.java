@@ -0,0 +1,24 @@
+package bench;
+
+import org.openjdk.jmh.annotations.*;
+
+/*
+* ArithmeticParser: 递归的 parse 和 shunting-yard 的 parseIterative
+* 表达式长度 8 / 64 / 512 个字符, 括号嵌套 0 / 4 / 32 层
+* */
+public class ArithmeticBenchmark extends ParserBenchmark {
+    @Param({"recursive", "iterative"})
+    public String parser;
+
+    @Param({"8", "64", "512"})
+    public int length;
+
+    @Param({"0", "4", "32"})
+    public int depth;
+
+    @Setup
+    public void setup() {
+        inputs = Workloads.inputs("expressionInputs", 1024, length, depth);
+        op = Workloads.operation("arithmetic", parser.equals("iterative"));
+    }
+}
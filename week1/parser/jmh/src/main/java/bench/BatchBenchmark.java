@@ -0,0 +1,23 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/*
+* BatchParser: 一次分析 count 个随机句子, 线程数 1 / 2 / 4 / 8, 看吞吐量是否随核数线性增长
+* */
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class BatchBenchmark extends ParserBenchmark {
+    @Param({"1", "2", "4", "8"})
+    public int threads;
+
+    @Param({"100000"})
+    public int count;
+
+    @Setup
+    public void setup() {
+        inputs = Workloads.inputs("batchInputs", count);
+        op = Workloads.operation("batchParser", threads);
+    }
+}
@@ -0,0 +1,28 @@
+package bench;
+
+import org.openjdk.jmh.annotations.*;
+
+/*
+* VP -> V NP VP 让句子可以任意长
+* full / cky: 每次重新分析整个句子
+* edit@start / edit@middle / edit@end: parseIncremental 之后, 每次把一个名词在 cat / dog 之间换一下
+* */
+public class ChainBenchmark extends ParserBenchmark {
+    @Param({"full", "cky", "edit@start", "edit@middle", "edit@end"})
+    public String mode;
+
+    @Param({"31", "301", "3001"})
+    public int length;
+
+    @Setup
+    public void setup() {
+        if (!mode.startsWith("edit")) {
+            inputs = Workloads.inputs("chainInputs", length);
+            op = Workloads.operation("chainParser", mode);
+            return;
+        }
+        int position = mode.endsWith("start") ? 4 : mode.endsWith("middle") ? length / 2 + 1 : length - 1;
+        inputs = Workloads.inputs("editInputs");
+        op = Workloads.operation("chainEditor", length, position);
+    }
+}
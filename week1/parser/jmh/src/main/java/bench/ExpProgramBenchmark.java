@@ -0,0 +1,24 @@
+package bench;
+
+import org.openjdk.jmh.annotations.*;
+
+/*
+* 同一批表达式反复求值: tree 遍历 ArithmeticParser.Exp 对象树, program 解释不折叠的 ExpProgram (共用一个栈)
+* 表达式长度 64 / 512 个字符, 括号嵌套 0 / 4 层
+* */
+public class ExpProgramBenchmark extends ParserBenchmark {
+    @Param({"tree", "program"})
+    public String mode;
+
+    @Param({"64", "512"})
+    public int length;
+
+    @Param({"0", "4"})
+    public int depth;
+
+    @Setup
+    public void setup() {
+        inputs = Workloads.inputs("evaluationInputs", mode, length, depth);
+        op = Workloads.operation("evaluation", mode, inputs);
+    }
+}
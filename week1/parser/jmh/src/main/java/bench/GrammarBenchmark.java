@@ -0,0 +1,24 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/*
+* Grammar.load: 分析文本 (包括检查和算 FIRST / nullable) vs 读二进制缓存
+* count 个非终结符, 3 * count 条规则
+* */
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class GrammarBenchmark extends ParserBenchmark {
+    @Param({"text", "cache"})
+    public String mode;
+
+    @Param({"500", "5000"})
+    public int count;
+
+    @Setup
+    public void setup() {
+        inputs = Workloads.inputs("grammarInputs", count);
+        op = Workloads.operation("grammarLoader", mode);
+    }
+}
@@ -0,0 +1,26 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/*
+* 几 MB 的表达式和很深的括号, 递归的 parse 会 StackOverflowError, 只测 parseIterative
+* 每次调用是几百毫秒, 所以只测平均时间
+* */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class HugeExpressionBenchmark extends ParserBenchmark {
+    @Param({"len=4M", "nested=1M"})
+    public String input;
+
+    @Setup
+    public void setup() {
+        if (input.startsWith("nested")) {
+            inputs = Workloads.inputs("nestedInputs", 1 << 20);
+        } else {
+            inputs = Workloads.inputs("expressionInputs", 2, 4 << 20, 16);
+        }
+        op = Workloads.operation("arithmetic", true);
+    }
+}
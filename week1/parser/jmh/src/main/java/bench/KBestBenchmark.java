@@ -0,0 +1,17 @@
+package bench;
+
+import org.openjdk.jmh.annotations.*;
+
+/*
+* k-best: 32 个词的句子有上百万种分析方法, 开销应该随 k 增长, 和树的总数无关
+* */
+public class KBestBenchmark extends ParserBenchmark {
+    @Param({"1", "10", "100", "1000"})
+    public int k;
+
+    @Setup
+    public void setup() {
+        inputs = Workloads.inputs("ambiguousInputs", 32);
+        op = Workloads.operation("kBest", k);
+    }
+}
@@ -0,0 +1,30 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToIntFunction;
+
+import org.openjdk.jmh.annotations.*;
+
+/*
+* 所有基准测试的公共部分: 子类的 @Setup 准备 inputs 和 op, 每次调用 parse() 分析下一个输入
+* 默认同时测吞吐量 (ops/s) 和单次延迟的分布 (SampleTime 给出 p50 ~ p99.9)
+* 分配量加 -prof gc 看 gc.alloc.rate.norm (B/op)
+* */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public abstract class ParserBenchmark {
+    Object[] inputs;
+    ToIntFunction<Object> op;
+    private int next;
+
+    @Benchmark
+    public int parse() {
+        Object input = inputs[next];
+        if (++next == inputs.length) next = 0;
+        return op.applyAsInt(input);
+    }
+}
@@ -0,0 +1,27 @@
+package bench;
+
+import org.openjdk.jmh.annotations.*;
+
+/*
+* 所有 parser 在同一批句子上的比较, 句子长度和歧义程度逐级增加
+* ambiguity: N / V 的位置换成 catch (既是 V 又是 N) 的概率
+* +metrics 打开 MetricsRegistry 的 Recorder, 和 MultiTopDownParser 比就是统计的开销
+* */
+public class SentenceBenchmark extends ParserBenchmark {
+    @Param({"TopDownParser", "AdvancedTopDownParser", "MultiTopDownParser", "MultiTopDownParser+packrat",
+            "MultiTopDownParser+metrics", "MultiTopDownParser.cky", "BackTracingTopDownChecker",
+            "BackTracingTopDownChecker.cky", "EarleyParser"})
+    public String parser;
+
+    @Param({"3", "5", "7", "16", "64"})
+    public int length;
+
+    @Param({"0", "0.5", "1"})
+    public double ambiguity;
+
+    @Setup
+    public void setup() {
+        inputs = Workloads.inputs("sentenceInputs", length, ambiguity);
+        op = Workloads.operation("sentenceParser", parser);
+    }
+}
@@ -0,0 +1,21 @@
+package bench;
+
+import org.openjdk.jmh.annotations.*;
+
+/*
+* 有歧义的加权文法 (NP -> NP NP, VP -> VP NP), 长句子的分析方法数是指数级的
+* beam = 0 是精确的 Viterbi, 4 是每个格子最多留 4 个符号、比最高分低 4 以上的扔掉
+* */
+public class ViterbiBenchmark extends ParserBenchmark {
+    @Param({"16", "64", "128"})
+    public int length;
+
+    @Param({"0", "4"})
+    public int beam;
+
+    @Setup
+    public void setup() {
+        inputs = Workloads.inputs("ambiguousInputs", length);
+        op = Workloads.operation("viterbi", beam, 4.0);
+    }
+}
@@ -0,0 +1,39 @@
+package bench;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.function.ToIntFunction;
+
+/*
+* 调用默认包里 BenchmarkInputs 的 public static 方法
+* 具名包里的类 import 不到默认包, 只能反射; 只在 @Setup 里调用, 不影响测量
+* */
+final class Workloads {
+    private static final String CATALOGUE = "BenchmarkInputs";
+
+    private Workloads() {
+    }
+
+    static Object[] inputs(String method, Object... args) {
+        return (Object[]) call(method, args);
+    }
+
+    @SuppressWarnings("unchecked")
+    static ToIntFunction<Object> operation(String method, Object... args) {
+        return (ToIntFunction<Object>) call(method, args);
+    }
+
+    // 按方法名和参数个数找, BenchmarkInputs 里没有重载
+    private static Object call(String method, Object... args) {
+        try {
+            for (Method m: Class.forName(CATALOGUE).getMethods()) {
+                if (m.getName().equals(method) && m.getParameterCount() == args.length) return m.invoke(null, args);
+            }
+            throw new IllegalArgumentException(CATALOGUE + " has no method " + method + "/" + args.length);
+        } catch (InvocationTargetException e) {
+            throw new IllegalStateException(method + " failed", e.getCause());
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
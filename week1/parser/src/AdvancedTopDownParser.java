@@ -1,105 +1,179 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.*;
 
 public class AdvancedTopDownParser {
-    // 读取到的值
+    // 内置文法的符号
     private enum Type {
         ART, N, V, NP, VP, S, EOS, ERROR
     }
 
-    // 转换规则
+    // 内置文法的转换规则, 每个成分一条; load(grammar) 以后不再使用, 是 null
     Map<Type, List<Type>> rules;
+    // 分析时用的文法: 内置文法由 rules 编译, 或者是 load 进来的 Grammar.compiled; 每个非终结符正好一条规则
+    CompiledGrammar grammar;
+    // grammar 里每个符号的名字, 开始符号, 以及句子结束用哪一位表示
+    String[] names;
+    int start;
+    int eos;
+    // packrat 模式的备忘表, 为 null 时不开启
+    PackratTable<Result> memo;
+    // 词典, 以及词典中的词性对应本 parser 的哪些符号
+    Lexicon lexicon;
+    long[] tagMasks;
+    // 计数, 默认是什么都不做的 NONE; depth 是 genericParse 当前的递归深度
+    ParseMetrics metrics = ParseMetrics.NONE;
+    private int depth;
 
-    AdvancedTopDownParser() {
+    AdvancedTopDownParser(Lexicon lexicon) {
+        this.lexicon = lexicon;
         this.rules = new HashMap<>();
         this.rules.put(Type.S, Arrays.asList(Type.NP, Type.VP));
         this.rules.put(Type.NP, Arrays.asList(Type.ART, Type.N));
         this.rules.put(Type.VP, Arrays.asList(Type.V, Type.NP));
+        compile();
+    }
+
+    AdvancedTopDownParser() {
+        this(Lexicon.shared());
+    }
+
+    // 用内置文法: 由 rules 重新生成 grammar, 修改 rules 之后要重新调用
+    void compile() {
+        Map<Type, List<List<Type>>> alternatives = new HashMap<>();
+        for (Map.Entry<Type, List<Type>> entry: this.rules.entrySet()) {
+            alternatives.put(entry.getKey(), Collections.singletonList(entry.getValue()));
+        }
+        this.grammar = CompiledGrammar.compile(Type.class, alternatives);
+        this.names = new String[Type.values().length];
+        for (Type type: Type.values()) this.names[type.ordinal()] = type.name();
+        this.start = Type.S.ordinal();
+        this.eos = Type.EOS.ordinal();
+        this.tagMasks = this.lexicon.tagMasks(Type.class);
+        if (this.memo != null) enablePackrat(this.memo.capacity());
+    }
+
+    /*
+    * 换成从文件读进来的文法: 直接用 grammar.compiled 和它的符号名, 开始符号, 符号不必是 Type
+    * 不能有左递归; 这个 parser 每个成分只能有一条规则
+    * */
+    void load(Grammar grammar) {
+        grammar.requireTopDown();
+        CompiledGrammar g = grammar.compiled;
+        for (int a = 0; a < g.symbolCount; a++) {
+            int count = g.ruleStart[a + 1] - g.ruleStart[a];
+            if (g.isNonterminal(a) && count != 1) {
+                throw new IllegalArgumentException(grammar.names[a] + " has " + count + " rules, expected 1");
+            }
+        }
+        this.eos = grammar.endOfSentence();
+        this.grammar = g;
+        this.names = grammar.names;
+        this.start = grammar.start;
+        this.tagMasks = grammar.tagMasks(this.lexicon);
+        this.rules = null;
+        if (this.memo != null) enablePackrat(this.memo.capacity());
     }
 
     interface Comp {
-        String pretty();
+        // 写进调用方提供的 out, 整棵树共用一个 out, 不生成中间字符串
+        void pretty(Appendable out) throws IOException;
+        default String pretty() {
+            StringBuilder s = new StringBuilder();
+            try {
+                pretty(s);
+            } catch (IOException e) {
+                // StringBuilder 不会抛 IOException
+                throw new UncheckedIOException(e);
+            }
+            return s.toString();
+        }
         void visualize();
+        // 可视化用的 TreeNode 在第一次调用时才构造, 分析过程中只建 AST 本身
         TreeNode getNode();
     }
 
-    // 原子属性: ART, N, V， 不可进一步分解
+    // 原子属性: ART, N, V， 不可进一步分解; type 是符号名
     class Atom implements Comp {
-        Type type;
+        String type;
         String value;
         TreeNode node;
-        Atom(String value, Type type) {
+        Atom(String value, String type) {
             this.type = type;
             this.value = value;
-            this.node = new TreeNode(this.pretty(), new ArrayList<>());
         }
 
         @Override
-        public String pretty() {
-            return "(" + this.type + " " + this.value + ")";
+        public void pretty(Appendable out) throws IOException {
+            out.append('(').append(this.type).append(' ').append(this.value).append(')');
         }
 
         @Override
         public void visualize() {
-            System.out.print(this.node.toString());
+            System.out.print(this.getNode().toString());
         }
 
         @Override
         public TreeNode getNode() {
+            if (this.node == null) this.node = new TreeNode(this.pretty(), new ArrayList<>());
             return this.node;
         }
     }
 
     // 复合元素，比如 NP, VP, S; 可以进一步分解
     class Compound implements Comp {
-        Type type;
+        String type;
         List<Comp> e;
         TreeNode node;
-        Compound(Type type, List<Comp> e) {
+        Compound(String type, List<Comp> e) {
             this.type = type;
             this.e = e;
-            ArrayList<TreeNode> nodesList = new ArrayList<>();
-            e.forEach(item -> nodesList.add(item.getNode()));
-            this.node = new TreeNode(this.type.toString(), nodesList);
         }
 
         @Override
-        public String pretty() {
-            StringBuilder s = new StringBuilder("(");
-            s.append(this.type.toString());
-            s.append(" ");
+        public void pretty(Appendable out) throws IOException {
+            out.append('(').append(this.type).append(' ');
             for (Comp comp : this.e) {
-                s.append(comp.pretty());
-                s.append(" ");
+                comp.pretty(out);
+                out.append(' ');
             }
-            s.append(")");
-            return s.toString();
+            out.append(')');
         }
 
         @Override
         public void visualize() {
-            System.out.print(this.node.toString());
+            System.out.print(this.getNode().toString());
         }
 
         @Override
         public TreeNode getNode() {
+            if (this.node == null) {
+                ArrayList<TreeNode> nodesList = new ArrayList<>();
+                this.e.forEach(item -> nodesList.add(item.getNode()));
+                this.node = new TreeNode(this.type, nodesList);
+            }
             return this.node;
         }
     }
 
+    // tags: 当前单词所有可能的词性, 位图 (1L << 符号的编号)
     class State {
         int startIndex;
-        Type token;
+        long tags;
         String value;
-        State (int index, Type tok, String value) {
+        State (int index, long tags, String value) {
             this.startIndex = index;
-            this.token = tok;
+            this.tags = tags;
             this.value = value;
         }
-        void set (int index, Type tok, String value) {
+        void set (int index, long tags, String value) {
             this.startIndex = index;
-            this.token = tok;
+            this.tags = tags;
             this.value = value;
         }
+        boolean has(int symbol) {
+            return (this.tags & (1L << symbol)) != 0;
+        }
     }
 
     class Result {
@@ -111,62 +185,95 @@ public class AdvancedTopDownParser {
         }
     }
 
-    private void scan(State st, List<String> s) {
+    // 查词典已经在 Tokens.lex 里做完了, 这里只是把下标往后移一个
+    private void scan(State st, Tokens t) {
         int index = st.startIndex;
-        if (index >= s.size()) {
-            st.set(index, Type.EOS, " ");
+        if (index >= t.length) {
+            st.set(index, 1L << this.eos, " ");
             return;
         }
-        while (index < s.size()) {
-            switch (s.get(index)) {
-                case "cat":
-                case "dog":
-                case "boy":
-                case "pen":
-                    st.set(index+1, Type.N, s.get(index));
-                    return;
-                case "catch":
-                case "receive":
-                    st.set(index+1, Type.V, s.get(index));
-                    return;
-                case "the":
-                case "a":
-                    st.set(index+1, Type.ART, s.get(index));
-                    return;
-                default: index++;
-            }
+        this.metrics.tokenScanned();
+        st.set(index+1, t.tags[index], t.word(index));
+    }
+
+    // 开启 packrat 模式, capacity 是能缓存的最大句子长度
+    void enablePackrat(int capacity) {
+        this.memo = new PackratTable<>(this.grammar.symbolCount, capacity);
+    }
+
+    private Result genericParse(State st, Tokens t, int symbol) {
+        this.metrics.depth(++this.depth);
+        Result res = memoized(st, t, symbol);
+        this.depth--;
+        return res;
+    }
+
+    /*
+    * packrat 模式: 复合元素按 (符号, startIndex) 缓存结果和结束时的 State
+    * 兄弟规则回溯时, 再次分析同一位置上的同一成分会直接命中
+    * */
+    private Result memoized(State st, Tokens t, int symbol) {
+        if (this.memo == null || !this.grammar.isNonterminal(symbol)) {
+            return expand(st, t, symbol);
+        }
+        PackratTable.Entry<Result> hit = this.memo.get(symbol, st.startIndex);
+        if (hit != null) {
+            st.set(hit.endIndex, hit.endTags, hit.endValue);
+            return hit.result;
         }
-        st.set(index, Type.EOS, " ");
+        int startIndex = st.startIndex;
+        Result res = expand(st, t, symbol);
+        this.memo.put(symbol, startIndex, res, st.startIndex, st.tags, st.value);
+        return res;
     }
 
     // 通用的 parse 方法
-    private Result genericParse(State st, List<String> s, Type startType) {
-        if (!this.rules.containsKey(startType)) {
+    private Result expand(State st, Tokens t, int symbol) {
+        CompiledGrammar g = this.grammar;
+        if (!g.isNonterminal(symbol)) {
             // 不存在该类型的变换规则, 那么就是原子元素了
-            if (st.token == startType) {
-                Comp a1 = new Atom(st.value, st.token);
+            if (st.has(symbol)) {
+                Comp a1 = new Atom(st.value, this.names[symbol]);
+                this.metrics.nodeAllocated();
                 // 只有处理完原子元素后，才进行 scan
-                scan(st, s);
+                scan(st, t);
                 return new Result(a1, true);
             }
-            return new Result(new Atom("error", Type.ERROR), false);
+            return new Result(new Atom("error", Type.ERROR.name()), false);
         }
 
         // 复合元素的处理
+        this.metrics.ruleAttempt();
         List<Comp> e = new ArrayList<>();
-        for (Type type: this.rules.get(startType)) {
-            Result res = genericParse(st, s, type);
-            if (!res.valid) return new Result(new Atom("error", Type.ERROR), false);
+        int r = g.ruleStart[symbol];
+        for (int i = g.rhsStart[r]; i < g.rhsStart[r + 1]; i++) {
+            Result res = genericParse(st, t, g.rhs[i]);
+            if (!res.valid) {
+                this.metrics.alternativeFailed();
+                return new Result(new Atom("error", Type.ERROR.name()), false);
+            }
             e.add(res.e);
         }
-        return new Result(new Compound(startType, e), true);
+        this.metrics.nodeAllocated();
+        return new Result(new Compound(this.names[symbol], e), true);
+    }
+
+    Comp parseEntry(List<String> s) {
+        if (this.metrics == ParseMetrics.NONE) return parse(s);
+        long start = System.nanoTime();
+        Comp c = parse(s);
+        this.metrics.parseFinished(System.nanoTime() - start);
+        return c;
     }
 
-    private Comp parseEntry(List<String> s) {
-        State st = new State(0, Type.EOS, " ");
-        scan(st, s);
-        Result res = genericParse(st, s, Type.S);
-        if (!res.valid) return new Atom("error", Type.ERROR);
+    private Comp parse(List<String> s) {
+        if (this.memo != null) this.memo.clear();
+        this.depth = 0;
+        Tokens t = Tokens.lex(s, this.lexicon, this.tagMasks);
+        State st = new State(0, 1L << this.eos, " ");
+        scan(st, t);
+        Result res = genericParse(st, t, this.start);
+        if (!res.valid) return new Atom("error", Type.ERROR.name());
         return res.e;
     }
 
@@ -174,6 +281,7 @@ public class AdvancedTopDownParser {
         Comp c = parseEntry(s);
         System.out.println(c.pretty());
         c.visualize();
+        if (this.memo != null) System.out.println(this.memo.stats());
     }
 
     public static void main(String[] args) {
@@ -1,7 +1,11 @@
 /* Reimplement ArithmeticParser */
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Deque;
 
 public class ArithmeticParser {
     // constants
@@ -9,16 +13,43 @@ public class ArithmeticParser {
         TypeIll, TypeInt
     }
 
-    // 读取到的值
+    // 读取到的值; NUM 的数值在 State.number 里, ERROR 表示词法错误
     private enum Value {
-        EOS, ZERO, ONE, TWO, OPEN, CLOSE, MULT, PLUS
+        EOS("end of input"), NUM("number"), OPEN("'('"), CLOSE("')'"),
+        PLUS("'+'"), MINUS("'-'"), MULT("'*'"), DIV("'/'"), ERROR("error");
+
+        // 报错时用的名字
+        final String text;
+        Value(String text) {
+            this.text = text;
+        }
     }
 
+    // 计数, 默认是什么都不做的 NONE; depth 是 parseE / parseT / parseF 当前的递归深度
+    ParseMetrics metrics = ParseMetrics.NONE;
+    private int depth;
+    // 最近一次分析失败的位置和原因 (只记第一个错误), e.g. "position 4: unexpected ')'"; 成功时为 null
+    String error;
+
     // AST elements
     interface Exp {
-        String pretty();
+        // 写进调用方提供的 out, 整棵树共用一个 out, 不生成中间字符串
+        void pretty(Appendable out) throws IOException;
+        default String pretty() {
+            StringBuilder s = new StringBuilder();
+            try {
+                pretty(s);
+            } catch (IOException e) {
+                // StringBuilder 不会抛 IOException
+                throw new UncheckedIOException(e);
+            }
+            return s.toString();
+        }
         Type infer();
+        // 数值; int 溢出和 Java 一样回绕
+        int evaluate();
         void visualize();
+        // 可视化用的 TreeNode 在第一次调用时才构造, 分析过程中只建 AST 本身
         TreeNode getNode();
     }
 
@@ -26,94 +57,168 @@ public class ArithmeticParser {
         int value;
         TreeNode node;
         Num (int value) {
+            metrics.nodeAllocated();
             this.value = value;
-            this.node = new TreeNode(this.pretty(), new ArrayList<>());
         }
-        public String pretty() {
-            return Integer.toString(value);
+        public void pretty(Appendable out) throws IOException {
+            out.append(Integer.toString(value));
         }
         public Type infer() {
             return Type.TypeInt;
         }
+        public int evaluate() {
+            return value;
+        }
         public void visualize() {
-            System.out.print(this.node.toString());
+            System.out.print(this.getNode().toString());
+        }
+        public TreeNode getNode() {
+            if (this.node == null) this.node = new TreeNode(this.pretty(), new ArrayList<>());
+            return this.node;
         }
-        public TreeNode getNode() { return this.node; }
     }
 
     class Mult implements Exp{
         Exp[] e;
         TreeNode node;
         Mult (Exp e1, Exp e2) {
+            metrics.nodeAllocated();
             e = new Exp[]{e1, e2};
-            this.node = new TreeNode("*", Arrays.asList(e1.getNode(), e2.getNode()));
         }
-        public String pretty() {
-            String s = "";
-            s += e[0].pretty();
-            s += "*";
-            s += e[1].pretty();
-            return s;
+        public void pretty(Appendable out) throws IOException {
+            e[0].pretty(out);
+            out.append('*');
+            e[1].pretty(out);
         }
         public Type infer() {
             if (e[0].infer() == Type.TypeInt && e[1].infer() == Type.TypeInt) return Type.TypeInt;
             return Type.TypeIll;
         }
+        public int evaluate() {
+            return e[0].evaluate() * e[1].evaluate();
+        }
         public void visualize() {
-            System.out.print(this.node.toString());
+            System.out.print(this.getNode().toString());
+        }
+        public TreeNode getNode() {
+            if (this.node == null) this.node = new TreeNode("*", Arrays.asList(e[0].getNode(), e[1].getNode()));
+            return this.node;
         }
-        public TreeNode getNode() { return this.node; }
     };
 
     class Plus implements Exp{
         Exp[] e;
         TreeNode node;
         Plus (Exp e1, Exp e2) {
+            metrics.nodeAllocated();
             e = new Exp[]{e1, e2};
-            this.node = new TreeNode("+", Arrays.asList(e1.getNode(), e2.getNode()));
         }
-        public String pretty() {
-            String s = "";
-            s += e[0].pretty();
-            s += "+";
-            s += e[1].pretty();
-            return s;
+        public void pretty(Appendable out) throws IOException {
+            e[0].pretty(out);
+            out.append('+');
+            e[1].pretty(out);
         }
         public Type infer() {
             if (e[0].infer() == Type.TypeInt && e[1].infer() == Type.TypeInt) return Type.TypeInt;
             return Type.TypeIll;
         }
+        public int evaluate() {
+            return e[0].evaluate() + e[1].evaluate();
+        }
         public void visualize() {
-            System.out.print(this.node.toString());
+            System.out.print(this.getNode().toString());
+        }
+        public TreeNode getNode() {
+            if (this.node == null) this.node = new TreeNode("+", Arrays.asList(e[0].getNode(), e[1].getNode()));
+            return this.node;
+        }
+    }
+
+    class Minus implements Exp{
+        Exp[] e;
+        TreeNode node;
+        Minus (Exp e1, Exp e2) {
+            metrics.nodeAllocated();
+            e = new Exp[]{e1, e2};
+        }
+        public void pretty(Appendable out) throws IOException {
+            e[0].pretty(out);
+            out.append('-');
+            e[1].pretty(out);
+        }
+        public Type infer() {
+            if (e[0].infer() == Type.TypeInt && e[1].infer() == Type.TypeInt) return Type.TypeInt;
+            return Type.TypeIll;
+        }
+        public int evaluate() {
+            return e[0].evaluate() - e[1].evaluate();
+        }
+        public void visualize() {
+            System.out.print(this.getNode().toString());
+        }
+        public TreeNode getNode() {
+            if (this.node == null) this.node = new TreeNode("-", Arrays.asList(e[0].getNode(), e[1].getNode()));
+            return this.node;
+        }
+    }
+
+    class Div implements Exp{
+        Exp[] e;
+        TreeNode node;
+        Div (Exp e1, Exp e2) {
+            metrics.nodeAllocated();
+            e = new Exp[]{e1, e2};
+        }
+        public void pretty(Appendable out) throws IOException {
+            e[0].pretty(out);
+            out.append('/');
+            e[1].pretty(out);
+        }
+        public Type infer() {
+            if (e[0].infer() == Type.TypeInt && e[1].infer() == Type.TypeInt) return Type.TypeInt;
+            return Type.TypeIll;
+        }
+        // 除以 0 和 Java 一样抛 ArithmeticException
+        public int evaluate() {
+            return e[0].evaluate() / e[1].evaluate();
+        }
+        public void visualize() {
+            System.out.print(this.getNode().toString());
+        }
+        public TreeNode getNode() {
+            if (this.node == null) this.node = new TreeNode("/", Arrays.asList(e[0].getNode(), e[1].getNode()));
+            return this.node;
         }
-        public TreeNode getNode() { return this.node; }
     }
 
     class Parenthesis implements Exp {
         Exp e;
         TreeNode node;
         Parenthesis(Exp e) {
+            metrics.nodeAllocated();
             this.e = e;
-            this.node = new TreeNode("()", Arrays.asList(e.getNode()));
         }
 
-        public String pretty() {
-            String s = "";
-            s += "(";
-            s += e.pretty();
-            s += ")";
-            return s;
+        public void pretty(Appendable out) throws IOException {
+            out.append('(');
+            e.pretty(out);
+            out.append(')');
         }
 
         public Type infer() {
             return e.infer();
         }
 
+        public int evaluate() {
+            return e.evaluate();
+        }
+
         public void visualize() {
-            System.out.print(this.node.toString());
+            System.out.print(this.getNode().toString());
         }
 
         public TreeNode getNode() {
+            if (this.node == null) this.node = new TreeNode("()", Arrays.asList(e.getNode()));
             return this.node;
         }
     }
@@ -121,6 +226,9 @@ public class ArithmeticParser {
     class State {
         int startIndex;
         Value token;
+        // 当前 token 的数值 (NUM) 和起始位置 (报错用)
+        int number;
+        int tokenStart;
         State (int index, Value tok) {
             this.startIndex = index;
             this.token = tok;
@@ -144,42 +252,84 @@ public class ArithmeticParser {
         }
     }
 
-    private void scan(State st, String s) {
+    /*
+    * 直接在 CharSequence 上读, 不创建子串; String, StringBuilder, CharBuffer (比如映射文件解码后的一段) 都可以
+    * 跳过空白; 多位整数边读边累加, 超出 int 范围报错; 其他不认识的字符也报错
+    * 出错时 token 是 ERROR, error 里记下位置
+    * */
+    private void scan(State st, CharSequence s) {
         int index = st.startIndex;
-        if (index >= s.length()) {
+        int n = s.length();
+        while (index < n && Character.isWhitespace(s.charAt(index))) index++;
+        st.tokenStart = index;
+        if (index >= n) {
             st.set(index, Value.EOS);
             return;
         }
-        while (index < s.length()) {
-            switch (s.charAt(index)) {
-                case '0':
-                    st.set(index+1, Value.ZERO);
-                    return;
-                case '1':
-                    st.set(index+1, Value.ONE);
-                    return;
-                case '2':
-                    st.set(index+1, Value.TWO);
+        char c = s.charAt(index);
+        if (c >= '0' && c <= '9') {
+            int number = 0;
+            while (index < n && (c = s.charAt(index)) >= '0' && c <= '9') {
+                int digit = c - '0';
+                if (number > (Integer.MAX_VALUE - digit) / 10) {
+                    fail(st.tokenStart, "integer overflow");
+                    st.set(index, Value.ERROR);
                     return;
-                case '(':
-                    st.set(index+1, Value.OPEN);
-                    return;
-                case ')':
-                    st.set(index+1, Value.CLOSE);
-                    return;
-                case '*':
-                    st.set(index+1, Value.MULT);
-                    return;
-                case '+':
-                    st.set(index+1, Value.PLUS);
-                    return;
-                default: // simply skip this token
-                    index++;
+                }
+                number = number * 10 + digit;
+                index++;
             }
+            st.number = number;
+            st.set(index, Value.NUM);
+            metrics.tokenScanned();
+            return;
         }
+        Value token;
+        switch (c) {
+            case '(':
+                token = Value.OPEN;
+                break;
+            case ')':
+                token = Value.CLOSE;
+                break;
+            case '+':
+                token = Value.PLUS;
+                break;
+            case '-':
+                token = Value.MINUS;
+                break;
+            case '*':
+                token = Value.MULT;
+                break;
+            case '/':
+                token = Value.DIV;
+                break;
+            default:
+                fail(index, "unexpected character '" + c + "'");
+                st.set(index, Value.ERROR);
+                return;
+        }
+        st.set(index + 1, token);
+        metrics.tokenScanned();
+    }
+
+    private void fail(int position, String message) {
+        if (error == null) error = "position " + position + ": " + message;
+    }
+
+    private void unexpected(State st) {
+        fail(st.tokenStart, "unexpected " + st.token.text);
     }
 
-    private Result parseE(State st, String s) {
+    private Result parseE(State st, CharSequence s) {
+        metrics.ruleAttempt();
+        metrics.depth(++depth);
+        Result res = expression(st, s);
+        depth--;
+        return res;
+    }
+
+    private Result expression(State st, CharSequence s) {
         Result res = parseT(st, s);
         if (!res.valid) {
             return new Result(res.e, false);
@@ -187,18 +337,27 @@ public class ArithmeticParser {
         return parseE2(st, res.e, s);
     }
 
-    private Result parseE2(State st, Exp e, String s) {
-        if (st.token == Value.PLUS) {
+    private Result parseE2(State st, Exp e, CharSequence s) {
+        if (st.token == Value.PLUS || st.token == Value.MINUS) {
+            Value op = st.token;
             scan(st, s);
             Result res = parseT(st, s);
             if (!res.valid) return new Result(e, false);
-            Exp t = new Plus(e, res.e);
+            Exp t = op == Value.PLUS ? new Plus(e, res.e) : new Minus(e, res.e);
             return parseE2(st, t, s);
         }
         return new Result(e, true);
     }
 
-    private Result parseT(State st, String s) {
+    private Result parseT(State st, CharSequence s) {
+        metrics.ruleAttempt();
+        metrics.depth(++depth);
+        Result res = term(st, s);
+        depth--;
+        return res;
+    }
+
+    private Result term(State st, CharSequence s) {
         Result res = parseF(st, s);
         if (!res.valid) {
             return new Result(res.e, false);
@@ -206,30 +365,34 @@ public class ArithmeticParser {
         return parseT2(st, res.e, s);
     }
 
-    private Result parseT2(State st, Exp e, String s) {
-        if (st.token == Value.MULT) {
+    private Result parseT2(State st, Exp e, CharSequence s) {
+        if (st.token == Value.MULT || st.token == Value.DIV) {
+            Value op = st.token;
             scan(st, s);
             Result res = parseF(st, s);
             if (!res.valid) {
                 return new Result(e, false);
             }
-            Exp t = new Mult(e, res.e);
+            Exp t = op == Value.MULT ? new Mult(e, res.e) : new Div(e, res.e);
             return parseT2(st, t, s);
         }
         return new Result(e, true);
     }
 
-    private Result parseF(State st, String s) {
+    private Result parseF(State st, CharSequence s) {
+        metrics.ruleAttempt();
+        metrics.depth(++depth);
+        Result res = factor(st, s);
+        depth--;
+        return res;
+    }
+
+    private Result factor(State st, CharSequence s) {
         switch (st.token) {
-            case ZERO:
+            case NUM:
+                int number = st.number;
                 scan(st, s);
-                return new Result(new Num(0), true);
-            case ONE:
-                scan(st, s);
-                return new Result(new Num(1), true);
-            case TWO:
-                scan(st, s);
-                return new Result(new Num(2), true);
+                return new Result(new Num(number), true);
             case OPEN:
                 scan(st, s);
                 Result res = parseE(st, s);
@@ -237,26 +400,167 @@ public class ArithmeticParser {
                     return new Result(res.e, false);
                 }
                 if (st.token != Value.CLOSE) {
+                    metrics.alternativeFailed();
+                    unexpected(st);
                     return new Result(res.e, false);
                 }
                 scan(st, s);
                 return new Result(new Parenthesis(res.e), true);
         }
+        metrics.alternativeFailed();
+        unexpected(st);
         return new Result(new Num(-1), false);
     }
 
-    private Exp parse(String s) {
+    Exp parse(CharSequence s) {
+        if (metrics == ParseMetrics.NONE) return parseEntry(s);
+        long start = System.nanoTime();
+        Exp e = parseEntry(s);
+        metrics.parseFinished(System.nanoTime() - start);
+        return e;
+    }
+
+    private Exp parseEntry(CharSequence s) {
+        depth = 0;
+        error = null;
         State st = new State(0, Value.EOS);
         scan(st, s);
         Result res = parseE(st, s);
         if (st.token == Value.EOS && res.valid) return res.e;
+        // 前面是合法的表达式, 但是后面还有多余的 token
+        if (res.valid) unexpected(st);
         return new Num(-1);
     }
 
+    /*
+    * 和 parse 得到同样的树, 但是不递归: 操作数和运算符各放在一个显式的栈里 (shunting-yard)
+    * parseE2 / parseT2 每遇到一个 + / * 就递归一层, parseF 每层括号也递归一层,
+    * 10 万项的表达式或者很深的括号都会 StackOverflowError; 这里只受堆大小限制, 也不创建 Result
+    *
+    * + 和 * 都是左结合: 读到运算符时, 先把栈顶优先级不低于它的运算符都归约掉
+    * 读到 ) 时归约到对应的 (, 再把栈顶操作数包一层 Parenthesis
+    * 不合法的输入返回 Num(-1), 和 parse 一样
+    * */
+    Exp parseIterative(CharSequence s) {
+        if (metrics == ParseMetrics.NONE) return climb(s);
+        long start = System.nanoTime();
+        Exp e = climb(s);
+        metrics.parseFinished(System.nanoTime() - start);
+        return e;
+    }
+
+    private Exp climb(CharSequence s) {
+        Deque<Exp> operands = new ArrayDeque<>();
+        Deque<Value> operators = new ArrayDeque<>();
+        error = null;
+        State st = new State(0, Value.EOS);
+        scan(st, s);
+        // 下一个应该是操作数 (数字或者左括号), 还是运算符
+        boolean expectOperand = true;
+        while (true) {
+            if (expectOperand) {
+                switch (st.token) {
+                    case NUM:
+                        operands.push(new Num(st.number));
+                        expectOperand = false;
+                        break;
+                    case OPEN:
+                        operators.push(Value.OPEN);
+                        metrics.depth(operators.size());
+                        break;
+                    default:
+                        metrics.alternativeFailed();
+                        unexpected(st);
+                        return new Num(-1);
+                }
+                scan(st, s);
+                continue;
+            }
+            switch (st.token) {
+                case PLUS:
+                case MINUS:
+                case MULT:
+                case DIV:
+                    while (!operators.isEmpty() && precedence(operators.peek()) >= precedence(st.token)) {
+                        reduce(operands, operators.pop());
+                    }
+                    operators.push(st.token);
+                    metrics.depth(operators.size());
+                    expectOperand = true;
+                    break;
+                case CLOSE:
+                    while (!operators.isEmpty() && operators.peek() != Value.OPEN) {
+                        reduce(operands, operators.pop());
+                    }
+                    if (operators.isEmpty()) {
+                        metrics.alternativeFailed();
+                        unexpected(st);
+                        return new Num(-1);
+                    }
+                    operators.pop();
+                    operands.push(new Parenthesis(operands.pop()));
+                    break;
+                case EOS:
+                    while (!operators.isEmpty()) {
+                        Value op = operators.pop();
+                        if (op == Value.OPEN) {
+                            metrics.alternativeFailed();
+                            unexpected(st);
+                            return new Num(-1);
+                        }
+                        reduce(operands, op);
+                    }
+                    return operands.pop();
+                default:
+                    metrics.alternativeFailed();
+                    unexpected(st);
+                    return new Num(-1);
+            }
+            scan(st, s);
+        }
+    }
+
+    // ( 的优先级最低, 归约时不会越过它
+    private static int precedence(Value op) {
+        switch (op) {
+            case MULT:
+            case DIV:
+                return 2;
+            case PLUS:
+            case MINUS:
+                return 1;
+            default:
+                return 0;
+        }
+    }
+
+    private void reduce(Deque<Exp> operands, Value op) {
+        Exp right = operands.pop();
+        Exp left = operands.pop();
+        switch (op) {
+            case PLUS:
+                operands.push(new Plus(left, right));
+                break;
+            case MINUS:
+                operands.push(new Minus(left, right));
+                break;
+            case MULT:
+                operands.push(new Mult(left, right));
+                break;
+            default:
+                operands.push(new Div(left, right));
+        }
+    }
+
     private void test(String s) {
         Exp e = parse(s);
+        if (this.error != null) {
+            System.out.println(s + " -> " + this.error);
+            return;
+        }
         System.out.println(e.pretty());
         System.out.println(e.infer());
+        System.out.println(e.evaluate());
         e.visualize();
     }
 
@@ -264,6 +568,10 @@ public class ArithmeticParser {
         String s = "1+(2*1+1)+1";
         ArithmeticParser ap = new ArithmeticParser();
         ap.test(s);
+        ap.test("120 / (7 - 3) * 25");
+        ap.test("1 + (2 * 3");
+        ap.test("2147483648 + 1");
+        ap.test("1 + x");
     }
 
 }
@@ -6,39 +6,92 @@ import java.util.*;
 * 但是，这部分代码还只能实现句法检查，没法生成句法树
 *  */
 public class BackTracingTopDownChecker {
-    // 读取到的值
+    // 内置文法的符号
     private enum Type {
         ART, N, V, ADJ, NP, VP, S, EOS, ERROR
     }
 
-    class State {
-        ArrayList<Type> types;
+    // 检查结果: 接受, 拒绝, 或者步数超出预算被中止
+    enum Outcome {
+        ACCEPT, REJECT, BUDGET_EXCEEDED
+    }
+
+    /*
+    * 不可变的单链表, 存放还没处理的符号 (grammar 里的编号)
+    * 原来每个 State 都有自己的 ArrayList, copy() 整个复制, extend() 还要在中间 remove + addAll, 都是 O(n)
+    * 现在展开一个非终结符只新建 |RHS| 个结点, 后面没变的部分和父 State 共享
+    * */
+    static class TypeList {
+        final int head;
+        final TypeList tail;
+        TypeList(int head, TypeList tail) {
+            this.head = head;
+            this.tail = tail;
+        }
+
+        // symbols[from..to) 依次接在 tail 前面
+        static TypeList prepend(int[] symbols, int from, int to, TypeList tail) {
+            TypeList list = tail;
+            for (int i = to - 1; i >= from; i--) {
+                list = new TypeList(symbols[i], list);
+            }
+            return list;
+        }
+    }
+
+    static class State {
+        // 剩余要处理的 Type, null 表示已经处理完
+        TypeList types;
+        // 已经匹配的单词个数
         int index;
-        State(ArrayList<Type> types, int index) {
+        State(TypeList types, int index) {
             this.types = types;
             this.index = index;
         }
         public void match() {
+            this.types = this.types.tail;
             this.index++;
         }
-        public void extend(int index, List<Type> newTypes) {
-            this.types.remove(index);
-            this.types.addAll(index, newTypes);
+        // 把第一个 Type 替换成规则 r 的右部
+        public void extend(CompiledGrammar g, int r) {
+            this.types = TypeList.prepend(g.rhs, g.rhsStart[r], g.rhsStart[r + 1], this.types.tail);
         }
         public State copy() {
-            // 注意点: ArrayList 必须复制一份，否则传的是引用
-            // 亦即两个 State 会指向同一个 ArrayList types, 导致异常行为
-            ArrayList<Type> newTypes = new ArrayList<>(this.types);
-            return new State(newTypes, this.index);
+            // TypeList 是不可变的, 直接共享即可
+            return new State(this.types, this.index);
         }
     }
 
-    // 转换规则
+    // 内置文法的转换规则; load(grammar) 以后不再使用, 是 null
     Map<Type, List<List<Type>>> rules;
-    Stack<State> st;
-    List<Type> wordsList;
+    // 检查时用的文法: 内置文法由 rules 编译, 或者是 load 进来的 Grammar.compiled
+    CompiledGrammar grammar;
+    // 开始符号, 以及句子结束用哪一位表示 (内置文法是 Type.S / Type.EOS)
+    int start;
+    int eos;
+    // checkEntry 默认回溯; useCky 以后改用 CKY (见 checkEntry)
+    boolean useCky;
+    // CKY 的规则表第一次用到时才构造, 所有副本共用一个 CkyTables; cky 是本副本的识别器 (自己的 chart)
+    private CkyTables ckyTables;
+    private CkyParser cky;
+    // 每条规则的预测集 (FIRST, 能推出空串时加上 FOLLOW), 句子结束用 EOS 表示
+    // ll1: 文法是 LL(1) 时, 只有一个词性的单词最多只有一条规则可选, run() 找到一条就不再往后找
+    long[] predict;
+    boolean ll1;
+    Deque<State> st;
+    // 每个单词所有可能的词性, 位图 (1L << 符号的编号)
+    long[] wordsList;
+    // 最多处理多少步 (每处理一个 Type 算一步), 防止异常输入卡住线程
+    long stepBudget = Long.MAX_VALUE;
+    long steps;
+    // 词典, 以及词典中的词性对应本 parser 的哪些符号
+    Lexicon lexicon;
+    long[] tagMasks;
+    // 计数, 默认是什么都不做的 NONE
+    ParseMetrics metrics = ParseMetrics.NONE;
 
-    BackTracingTopDownChecker(List<String> s) {
+    BackTracingTopDownChecker(List<String> s, Lexicon lexicon) {
+        this.lexicon = lexicon;
         this.rules = new HashMap<>();
         this.rules.put(
                 Type.S,
@@ -59,84 +112,224 @@ public class BackTracingTopDownChecker {
                 )
         );
 
-        this.st = new Stack<>();
+        compile();
+        this.st = new ArrayDeque<>();
         this.wordsList = scan(s);
     }
 
-    private List<Type> scan(List<String> s) {
-        List<Type> types = new ArrayList<>();
-        for (String item: s) {
-            switch (item) {
-                case "cat":
-                case "dog":
-                case "boy":
-                case "pen":
-                    types.add(Type.N);
-                    break;
-                case "catch":
-                case "receive":
-                    types.add(Type.V);
-                    break;
-                case "the":
-                case "a":
-                    types.add(Type.ART);
-                    break;
-                case "ugly":
-                case "beautiful":
-                    types.add(Type.ADJ);
-                    break;
+    BackTracingTopDownChecker(List<String> s) {
+        this(s, Lexicon.shared());
+    }
+
+    /*
+    * 同一个文法的所有副本共用的 CKY 规则表, 由第一个用到的线程构造
+    * 文法 CKY 表示不了 (空规则, 二元化以后超过 64 个符号) 时 unsupported, checkEntry 回溯
+    * */
+    private static final class CkyTables {
+        private final CompiledGrammar grammar;
+        private final int start;
+        private CkyParser parser;
+        private boolean unsupported;
+
+        CkyTables(CompiledGrammar grammar, int start) {
+            this.grammar = grammar;
+            this.start = start;
+        }
+
+        // 返回一个新的副本, 不支持时返回 null
+        synchronized CkyParser fork() {
+            if (parser == null && !unsupported) {
+                try {
+                    parser = new CkyParser(grammar, start);
+                } catch (IllegalArgumentException e) {
+                    unsupported = true;
+                }
             }
+            return parser == null ? null : parser.fork();
         }
-        return types;
     }
 
-    public boolean backTracing() {
-        // 回溯: 取栈里头找一个 State
-        if (!st.empty()) {
-            State _s = st.peek();
-            st.pop();
-            return semanticChecker(_s);
-        } else {
-            return false;
-        }
+    // 给别的线程用的副本: 规则和词典共享, 栈和 wordsList 各有一份
+    private BackTracingTopDownChecker(BackTracingTopDownChecker prototype) {
+        this.lexicon = prototype.lexicon;
+        this.tagMasks = prototype.tagMasks;
+        this.rules = prototype.rules;
+        this.grammar = prototype.grammar;
+        this.start = prototype.start;
+        this.eos = prototype.eos;
+        this.useCky = prototype.useCky;
+        this.ckyTables = prototype.ckyTables;
+        this.predict = prototype.predict;
+        this.ll1 = prototype.ll1;
+        this.stepBudget = prototype.stepBudget;
+        this.metrics = prototype.metrics.fork();
+        this.st = new ArrayDeque<>();
+        this.wordsList = new long[0];
     }
 
+    // 用内置文法: 由 rules 重新生成 grammar
+    private void compile() {
+        this.grammar = CompiledGrammar.compile(Type.class, this.rules);
+        this.start = Type.S.ordinal();
+        this.eos = Type.EOS.ordinal();
+        this.tagMasks = this.lexicon.tagMasks(Type.class);
+        tables();
+    }
 
-    public boolean semanticChecker(State s) {
-        // 结束条件: 遍历到 State 中的最后一个 Type
-        if (s.index == s.types.size()) {
-            if (s.index == wordsList.size()) return true;
-            return backTracing();
-        }
+    /*
+    * 换成从文件读进来的文法: 直接用 grammar.compiled 和它的开始符号, 符号不必是 Type, 个数也不限
+    * 有左递归时回溯会一直展开下去, 所以不接受; 之后 rules 是 null
+    * */
+    void load(Grammar grammar) {
+        grammar.requireTopDown();
+        this.eos = grammar.endOfSentence();
+        this.grammar = grammar.compiled;
+        this.start = grammar.start;
+        this.tagMasks = grammar.tagMasks(this.lexicon);
+        this.rules = null;
+        tables();
+    }
 
-        // 每次递归只要比较一个 Type
-        Type type = s.types.get(s.index);
-        if (!rules.containsKey(type)) {
-            // 原子元素，直接匹配
-            if (type == this.wordsList.get(s.index)) {
-                s.match();
-                return semanticChecker(s);
-            } else {
-                return backTracing();
+    // 由 grammar 生成预测集, CKY 的表等到用的时候再构造
+    private void tables() {
+        this.ckyTables = new CkyTables(this.grammar, this.start);
+        this.cky = null;
+        this.predict = this.grammar.predict(this.start, this.eos);
+        this.ll1 = this.grammar.isLL1(this.predict);
+    }
+
+    BackTracingTopDownChecker fork() {
+        return new BackTracingTopDownChecker(this);
+    }
+
+    private long[] scan(List<String> s) {
+        Tokens t = Tokens.lex(s, this.lexicon, this.tagMasks);
+        return Arrays.copyOf(t.tags, t.length);
+    }
+
+    void setStepBudget(long stepBudget) {
+        this.stepBudget = stepBudget;
+    }
+
+    // 回溯: 去栈里头找一个 State, 栈空了返回 null
+    private State backTracing() {
+        return st.pollFirst();
+    }
+
+    /*
+    * 原来 semanticChecker 和 backTracing 互相递归, 每匹配一个 Type 或者回溯一次都会加深调用栈
+    * 栈深度和总工作量成正比, 句子一长就 StackOverflowError
+    * 现在改成一个循环, 所有待尝试的 State 都放在显式的栈 st 里
+    * */
+    public Outcome run(State s) {
+        while (s != null) {
+            if (++steps > stepBudget) return Outcome.BUDGET_EXCEEDED;
+
+            // 结束条件: State 中的 Type 都处理完了
+            if (s.types == null) {
+                if (s.index == wordsList.length) return Outcome.ACCEPT;
+                metrics.alternativeFailed();
+                s = backTracing();
+                continue;
             }
-        } else {
-            // 非原子元素，把所有规则加入栈中
-            for (List<Type> children: this.rules.get(type)) {
-                State s_copy = s.copy();
-                s_copy.extend(s.index, new ArrayList<>(children));
-                st.push(s_copy);
+
+            // 每次循环只要比较一个 Type
+            int type = s.types.head;
+            if (!grammar.isNonterminal(type)) {
+                // 原子元素，单词的词性中有 type 就算匹配; 不匹配则回溯
+                if (s.index < wordsList.length && (this.wordsList[s.index] & (1L << type)) != 0) {
+                    metrics.tokenScanned();
+                    s.match();
+                } else {
+                    metrics.alternativeFailed();
+                    s = backTracing();
+                }
+            } else {
+                // 非原子元素: 预测集里没有当前单词的词性的规则一定走不通, 不入栈
+                long next = s.index < wordsList.length ? this.wordsList[s.index] : 1L << this.eos;
+                int first = grammar.ruleStart[type];
+                int end = grammar.ruleStart[type + 1];
+                while (first < end && (predict[first] & next) == 0) first++;
+                int second = first + 1;
+                if (!ll1 || (next & (next - 1)) != 0) {
+                    while (second < end && (predict[second] & next) == 0) second++;
+                } else {
+                    second = end;
+                }
+                if (first == end) {
+                    metrics.alternativeFailed();
+                    s = backTracing();
+                } else if (second >= end) {
+                    // 只有一条规则可选: 直接在 s 上展开, 不复制也不入栈
+                    // LL(1) 文法里单词只有一个词性时总是这样; 多词性的单词 (比如 catch) 还是可能有几条规则可选
+                    s.extend(grammar, first);
+                    metrics.ruleAttempt();
+                } else {
+                    for (int r = first; r < end; r++) {
+                        if ((predict[r] & next) == 0) continue;
+                        State s_copy = s.copy();
+                        s_copy.extend(grammar, r);
+                        st.push(s_copy);
+                        metrics.ruleAttempt();
+                        metrics.nodeAllocated();
+                    }
+                    metrics.depth(st.size());
+                    s = backTracing();
+                }
             }
-            return backTracing();
         }
+        return Outcome.REJECT;
     }
 
+    public boolean semanticChecker(State s) {
+        return run(s) == Outcome.ACCEPT;
+    }
+
+    public Outcome check() {
+        st.clear();
+        steps = 0;
+        State s = new State(new TypeList(this.start, null), 0);
+        if (metrics == ParseMetrics.NONE) return run(s);
+        long start = System.nanoTime();
+        Outcome outcome = run(s);
+        metrics.parseFinished(System.nanoTime() - start);
+        return outcome;
+    }
+
+    // 复用同一个 checker 检查另一个句子
+    public Outcome check(List<String> s) {
+        this.wordsList = scan(s);
+        return check();
+    }
+
+    /*
+    * 默认就是 check() == ACCEPT: 默认文法的句子几乎没有歧义, 回溯只走几步, 比 CKY 快得多
+    * (3001 个词的 VP -> V NP VP 链, 回溯约 0.7 ms, CKY 约 220 ms)
+    * useCky 以后走 CKY: 时间是 O(n^3), 跟歧义多少无关, 不会 BUDGET_EXCEEDED, 适合歧义很多的文法;
+    * 文法 CKY 表示不了时还是回溯
+    * */
     public boolean checkEntry() {
-        State s = new State(new ArrayList<>(Collections.singletonList(Type.S)), 0);
-        return semanticChecker(s);
+        CkyParser cky = this.useCky ? cky() : null;
+        if (cky == null) return check() == Outcome.ACCEPT;
+        if (metrics == ParseMetrics.NONE) return cky.accepts(wordsList, wordsList.length);
+        long start = System.nanoTime();
+        boolean accepted = cky.accepts(wordsList, wordsList.length);
+        metrics.parseFinished(System.nanoTime() - start);
+        return accepted;
+    }
+
+    private CkyParser cky() {
+        if (this.cky == null) this.cky = this.ckyTables.fork();
+        return this.cky;
+    }
+
+    public boolean checkEntry(List<String> s) {
+        this.wordsList = scan(s);
+        return checkEntry();
     }
 
     private void test() {
-        System.out.println(checkEntry());
+        System.out.println(check());
     }
 
     public static void main(String[] args) {
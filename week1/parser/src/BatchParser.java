@@ -0,0 +1,118 @@
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+/*
+* 批量分析: 把句子分给 ForkJoinPool 的各个线程
+* parser 里有可变的状态 (packrat 备忘表, checker 的栈和 wordsList), 不能多线程共用
+* 所以每个工作线程用 ThreadLocal 拿自己的一个 parser (由 prototype.fork() 得到), 规则和词典是共享的只读数据
+* 结果按输入的顺序返回
+* Stream 输入按窗口分批读取和分析, 内存里只有一个窗口的句子和结果
+* */
+public class BatchParser<P, R> implements AutoCloseable {
+    // 每个任务至少处理这么多个句子, 太小的任务调度开销比分析本身还大
+    private static final int CHUNK = 256;
+
+    private final ForkJoinPool pool;
+    private final ThreadLocal<P> workers;
+    private final BiFunction<P, List<String>, R> parse;
+
+    BatchParser(Supplier<P> factory, BiFunction<P, List<String>, R> parse, int parallelism) {
+        this.pool = new ForkJoinPool(parallelism);
+        this.workers = ThreadLocal.withInitial(factory);
+        this.parse = parse;
+    }
+
+    static BatchParser<MultiTopDownParser, MultiTopDownParser.Comp> of(MultiTopDownParser prototype, int parallelism) {
+        return new BatchParser<>(prototype::fork, MultiTopDownParser::parseEntry, parallelism);
+    }
+
+    static BatchParser<BackTracingTopDownChecker, BackTracingTopDownChecker.Outcome> of(
+            BackTracingTopDownChecker prototype, int parallelism) {
+        return new BatchParser<>(prototype::fork, BackTracingTopDownChecker::check, parallelism);
+    }
+
+    // 任务不会被序列化 (RecursiveAction 继承了 Serializable), 所以引用的 parser 相关对象都是 transient
+    private static final class Task<P, R> extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        final transient ThreadLocal<P> workers;
+        final transient BiFunction<P, List<String>, R> parse;
+        final transient List<List<String>> input;
+        final Object[] output;
+        final int from;
+        final int to;
+
+        Task(ThreadLocal<P> workers, BiFunction<P, List<String>, R> parse,
+             List<List<String>> input, Object[] output, int from, int to) {
+            this.workers = workers;
+            this.parse = parse;
+            this.input = input;
+            this.output = output;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= CHUNK) {
+                P parser = workers.get();
+                for (int i = from; i < to; i++) output[i] = parse.apply(parser, input.get(i));
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new Task<>(workers, parse, input, output, from, mid),
+                    new Task<>(workers, parse, input, output, mid, to));
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    List<R> parseAll(List<List<String>> sentences) {
+        Object[] output = new Object[sentences.size()];
+        pool.invoke(new Task<>(workers, parse, sentences, output, 0, sentences.size()));
+        return (List<R>) Arrays.asList(output);
+    }
+
+    /*
+    * 流式版本: 每次从 sentences 读一个窗口 (每个线程 4 个 CHUNK), 并行分析完按顺序交给 sink, 再读下一个窗口
+    * 输入和结果都不会整个留在内存里, 可以处理比堆大的语料
+    * */
+    void parseAll(Stream<List<String>> sentences, Consumer<? super R> sink) {
+        int window = CHUNK * 4 * pool.getParallelism();
+        List<List<String>> input = new ArrayList<>(window);
+        Iterator<List<String>> it = sentences.iterator();
+        while (it.hasNext()) {
+            input.add(it.next());
+            if (input.size() == window || !it.hasNext()) {
+                parseAll(input).forEach(sink);
+                input.clear();
+            }
+        }
+    }
+
+    // 等正在执行的任务结束; 被中断时不再等, 保留中断状态
+    @Override
+    public void close() {
+        pool.shutdown();
+        try {
+            pool.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public static void main(String[] args) {
+        List<List<String>> batch = BenchmarkInputs.sentences(10, 42);
+        try (BatchParser<MultiTopDownParser, MultiTopDownParser.Comp> parser = of(new MultiTopDownParser(), 2)) {
+            List<MultiTopDownParser.Comp> result = parser.parseAll(batch);
+            for (int i = 0; i < batch.size(); i++) {
+                System.out.println(String.join(" ", batch.get(i)) + " -> " + result.get(i).pretty());
+            }
+        }
+    }
+}
@@ -0,0 +1,387 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.function.ToIntFunction;
+
+/*
+* 基准测试的输入和被测的操作, jmh/ 模块里的 @Benchmark 类在 setup 里调用这里的 public static 方法
+* JMH 不允许 @Benchmark 类放在默认包里, 而默认包里的类别的包 import 不到, 所以那边是通过反射调用的 (见 jmh/ 的 Workloads)
+* 输入都是调用时才生成的, 只跑一项时不会生成别的项的输入 (比如几 MB 的表达式)
+* 操作返回一个 int, 由 JMH 的 Blackhole 消费, 防止 JIT 把没用到结果的分析整个消掉
+* 各个类的 main 只是演示, 计时都在 jmh/ 里
+* */
+public class BenchmarkInputs {
+    // 每组输入的个数, 测的是一组输入上的平均
+    static final int INPUTS = 1024;
+    // 既是 V 又是 N 的词
+    static final String AMBIGUOUS = "catch";
+    static final String[] ART = {"the", "a"};
+    static final String[] ADJ = {"ugly", "beautiful"};
+    static final String[] N = {"cat", "dog", "boy", "pen", AMBIGUOUS};
+    static final String[] V = {AMBIGUOUS, "receive", "beats"};
+    // sentences 在合法的前缀之后随机接的词
+    private static final String[] VOCABULARY = {
+            "the", "a", "ugly", "beautiful", "cat", "dog", "boy", "pen", "receive", "beats", AMBIGUOUS};
+
+    static String pick(Random random, String[] words) {
+        return words[random.nextInt(words.length)];
+    }
+
+    // 不是 catch 的名词 / 动词; N 的最后一个, V 的第一个是 catch
+    private static String noun(Random random, double ambiguity) {
+        if (random.nextDouble() < ambiguity) return AMBIGUOUS;
+        return N[random.nextInt(N.length - 1)];
+    }
+
+    private static String verb(Random random, double ambiguity) {
+        if (random.nextDouble() < ambiguity) return AMBIGUOUS;
+        return V[1 + random.nextInt(V.length - 1)];
+    }
+
+    private static void np(Random random, List<String> s) {
+        s.add(pick(random, ART));
+        if (random.nextBoolean()) s.add(pick(random, ADJ));
+        s.add(pick(random, N));
+    }
+
+    /*
+    * count 个随机句子, 按 S -> NP VP 的规则生成, 长度不固定
+    * 其中约 1/4 打乱词序, 得到不合法的句子
+    * */
+    static List<List<String>> sentences(int count, long seed) {
+        Random random = new Random(seed);
+        List<List<String>> result = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            List<String> s = new ArrayList<>();
+            np(random, s);
+            s.add(pick(random, V));
+            if (random.nextBoolean()) np(random, s);
+            if (random.nextInt(4) == 0) Collections.shuffle(s, random);
+            result.add(s);
+        }
+        return result;
+    }
+
+    /*
+    * 生成 count 个长度为 length 的句子
+    * 前面尽量按 ART [ADJ] N V ART [ADJ] N 的结构生成合法的部分, 超过 7 个词以后随机接词典里的词,
+    * 这样长句子会在读到多余的词时被拒绝, 测的是失败路径的开销
+    * ambiguity: N / V 的位置换成 catch 的概率
+    * */
+    static List<List<String>> sentences(int count, int length, double ambiguity, long seed) {
+        Random random = new Random(seed);
+        List<List<String>> result = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            List<String> s = new ArrayList<>(length);
+            s.add(pick(random, ART));
+            if (length >= 4 && length != 5) s.add(pick(random, ADJ));
+            s.add(noun(random, ambiguity));
+            s.add(verb(random, ambiguity));
+            if (length >= 5) {
+                s.add(pick(random, ART));
+                if (length >= 7) s.add(pick(random, ADJ));
+                s.add(noun(random, ambiguity));
+            }
+            while (s.size() < length) s.add(VOCABULARY[random.nextInt(VOCABULARY.length)]);
+            result.add(s.subList(0, length));
+        }
+        return result;
+    }
+
+    // 生成 count 个约 length 个字符的算术表达式, depth 层括号
+    static List<String> expressions(int count, int length, int depth, long seed) {
+        Random random = new Random(seed);
+        List<String> result = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            StringBuilder s = new StringBuilder(length + 2 * depth);
+            expression(random, s, length, depth);
+            result.add(s.toString());
+        }
+        return result;
+    }
+
+    // depth 层括号套在一起: ((((1)*2+1)*2+1)*2+1)...
+    static String nested(int depth) {
+        StringBuilder s = new StringBuilder(depth * 7 + 1);
+        for (int i = 0; i < depth; i++) s.append('(');
+        s.append('1');
+        for (int i = 0; i < depth; i++) s.append(")*2+1");
+        return s.toString();
+    }
+
+    // count 个非终结符、3 * count 条规则的文法: Xi -> ART Xi+1 | V N Xj | N
+    static String grammarText(int count) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            text.append("X").append(i).append(" -> ART X").append(i + 1).append(" | V N X").append((i * 7 + 3) % count)
+                    .append(" | N [0.2]\n");
+        }
+        return text.toString();
+    }
+
+    private static void expression(Random random, StringBuilder s, int length, int depth) {
+        int end = s.length() + length;
+        int inner = depth > 0 ? length / 2 : 0;
+        boolean nested = false;
+        s.append((char) ('0' + random.nextInt(3)));
+        while (s.length() < end - 1) {
+            s.append(random.nextBoolean() ? '+' : '*');
+            if (!nested && depth > 0 && s.length() >= (end - inner) / 2) {
+                s.append('(');
+                expression(random, s, inner, depth - 1);
+                s.append(')');
+                nested = true;
+            } else {
+                s.append((char) ('0' + random.nextInt(3)));
+            }
+        }
+    }
+
+    // the cat beats the pen receive the cat receive the cat ..., 长度是 1 + 2 + 3k
+    static List<String> chain(int length) {
+        List<String> s = new ArrayList<>(Arrays.asList("the", "boy", "beats", "the", "pen"));
+        while (s.size() < length) s.addAll(Arrays.asList("receive", "the", "cat"));
+        return s;
+    }
+
+    // VP -> V NP VP 让句子可以任意长
+    static MultiTopDownParser chainParser() {
+        MultiTopDownParser parser = new MultiTopDownParser();
+        parser.rules.put(MultiTopDownParser.Type.VP, Arrays.asList(
+                Arrays.asList(MultiTopDownParser.Type.V, MultiTopDownParser.Type.NP, MultiTopDownParser.Type.VP),
+                Arrays.asList(MultiTopDownParser.Type.V, MultiTopDownParser.Type.NP),
+                Collections.singletonList(MultiTopDownParser.Type.V)));
+        parser.compile();
+        return parser;
+    }
+
+    // 加权的歧义文法, 权重是 log 概率
+    static MultiTopDownParser weightedParser() {
+        MultiTopDownParser parser = new MultiTopDownParser();
+        MultiTopDownParser.Type S = MultiTopDownParser.Type.S;
+        MultiTopDownParser.Type NP = MultiTopDownParser.Type.NP;
+        MultiTopDownParser.Type VP = MultiTopDownParser.Type.VP;
+        parser.rules.put(S, Arrays.asList(Arrays.asList(NP, VP), Collections.singletonList(VP)));
+        parser.rules.put(NP, Arrays.asList(
+                Arrays.asList(NP, NP),
+                Arrays.asList(MultiTopDownParser.Type.ART, MultiTopDownParser.Type.N),
+                Arrays.asList(MultiTopDownParser.Type.ART, MultiTopDownParser.Type.ADJ, MultiTopDownParser.Type.N),
+                Collections.singletonList(MultiTopDownParser.Type.N)));
+        parser.rules.put(VP, Arrays.asList(
+                Arrays.asList(MultiTopDownParser.Type.V, NP),
+                Arrays.asList(VP, NP),
+                Collections.singletonList(MultiTopDownParser.Type.V)));
+        parser.weights.put(S, new double[]{Math.log(0.9), Math.log(0.1)});
+        parser.weights.put(NP, new double[]{Math.log(0.1), Math.log(0.5), Math.log(0.2), Math.log(0.2)});
+        parser.weights.put(VP, new double[]{Math.log(0.6), Math.log(0.2), Math.log(0.2)});
+        parser.compile();
+        return parser;
+    }
+
+    // weightedParser 能分析的句子: NP V 后面跟若干个 NP, NP 是 ART [ADJ] N 或者 N
+    static List<List<String>> ambiguous(int count, int length, long seed) {
+        Random random = new Random(seed);
+        List<List<String>> result = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            List<String> s = new ArrayList<>(Arrays.asList(
+                    pick(random, ART), noun(random, 0), verb(random, 0)));
+            // 只剩一个位置时不加 ART, 不然截断以后句子以 ART 结尾, 分析不了
+            while (s.size() < length) {
+                if (s.size() + 2 <= length && random.nextBoolean()) s.add(pick(random, ART));
+                s.add(noun(random, 0));
+            }
+            result.add(s.subList(0, length));
+        }
+        return result;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<String> cast(Object s) {
+        return (List<String>) s;
+    }
+
+    // ---- 下面是 jmh/ 模块用的入口 ----
+
+    public static Object[] sentenceInputs(int length, double ambiguity) {
+        return sentences(INPUTS, length, ambiguity, 42).toArray();
+    }
+
+    // 句子上的各个 parser, name 和 jmh/ 里 SentenceBenchmark 的 @Param 一致
+    public static ToIntFunction<Object> sentenceParser(String name) {
+        switch (name) {
+            case "TopDownParser": {
+                TopDownParser parser = new TopDownParser();
+                return s -> parser.parse(cast(s)).hashCode();
+            }
+            case "AdvancedTopDownParser": {
+                AdvancedTopDownParser parser = new AdvancedTopDownParser();
+                return s -> parser.parseEntry(cast(s)).hashCode();
+            }
+            case "MultiTopDownParser": {
+                MultiTopDownParser parser = new MultiTopDownParser();
+                return s -> parser.parseEntry(cast(s)).hashCode();
+            }
+            case "MultiTopDownParser+packrat": {
+                MultiTopDownParser parser = new MultiTopDownParser();
+                parser.enablePackrat(64);
+                return s -> parser.parseEntry(cast(s)).hashCode();
+            }
+            case "MultiTopDownParser+metrics": {
+                MultiTopDownParser parser = new MultiTopDownParser();
+                parser.metrics = new MetricsRegistry().recorder();
+                return s -> parser.parseEntry(cast(s)).hashCode();
+            }
+            case "MultiTopDownParser.cky": {
+                MultiTopDownParser parser = new MultiTopDownParser();
+                return s -> parser.parseCky(cast(s)).hashCode();
+            }
+            case "BackTracingTopDownChecker": {
+                BackTracingTopDownChecker checker = new BackTracingTopDownChecker(Collections.emptyList());
+                return s -> checker.check(cast(s)).ordinal();
+            }
+            case "BackTracingTopDownChecker.cky": {
+                BackTracingTopDownChecker checker = new BackTracingTopDownChecker(Collections.emptyList());
+                checker.useCky = true;
+                return s -> checker.checkEntry(cast(s)) ? 1 : 0;
+            }
+            case "EarleyParser": {
+                EarleyParser parser = new EarleyParser(new MultiTopDownParser());
+                return s -> parser.parseEntry(cast(s)).hashCode();
+            }
+            default:
+                throw new IllegalArgumentException("unknown parser " + name);
+        }
+    }
+
+    public static Object[] chainInputs(int length) {
+        return new Object[]{chain(length)};
+    }
+
+    // 整句重新分析: full 是 genericParse, cky 是 parseCky
+    public static ToIntFunction<Object> chainParser(String mode) {
+        MultiTopDownParser parser = chainParser();
+        if (mode.equals("cky")) return s -> parser.parseCky(cast(s)).hashCode();
+        return s -> parser.parseEntry(cast(s)).hashCode();
+    }
+
+    // 增量分析: 输入是两个交替的修改, 把 position 上的名词在 cat / dog 之间换一下
+    public static Object[] editInputs() {
+        return new Object[]{Collections.singletonList("dog"), Collections.singletonList("cat")};
+    }
+
+    public static ToIntFunction<Object> chainEditor(int length, int position) {
+        MultiTopDownParser parser = chainParser();
+        parser.parseIncremental(chain(length));
+        return s -> parser.edit(position, 1, cast(s)).hashCode();
+    }
+
+    public static Object[] ambiguousInputs(int length) {
+        return ambiguous(16, length, 42).toArray();
+    }
+
+    // width == 0 表示不剪枝
+    public static ToIntFunction<Object> viterbi(int width, double threshold) {
+        MultiTopDownParser parser = weightedParser();
+        if (width > 0) parser.setBeam(width, threshold);
+        return s -> parser.parseViterbi(cast(s)).hashCode();
+    }
+
+    public static ToIntFunction<Object> kBest(int k) {
+        MultiTopDownParser parser = weightedParser();
+        return s -> parser.parseKBest(cast(s), k).size();
+    }
+
+    public static Object[] expressionInputs(int count, int length, int depth) {
+        return expressions(count, length, depth, 42).toArray();
+    }
+
+    public static Object[] nestedInputs(int depth) {
+        return new Object[]{nested(depth)};
+    }
+
+    public static ToIntFunction<Object> arithmetic(boolean iterative) {
+        ArithmeticParser parser = new ArithmeticParser();
+        if (iterative) return s -> parser.parseIterative((String) s).hashCode();
+        return s -> parser.parse((String) s).hashCode();
+    }
+
+    // 同一个表达式反复求值: tree 是遍历 Exp 对象树, program 是解释不折叠的 ExpProgram
+    public static Object[] evaluationInputs(String mode, int length, int depth) {
+        ArithmeticParser parser = new ArithmeticParser();
+        List<String> expressions = expressions(16, length, depth, 42);
+        Object[] result = new Object[expressions.size()];
+        for (int i = 0; i < result.length; i++) {
+            ArithmeticParser.Exp e = parser.parse(expressions.get(i));
+            result[i] = mode.equals("program") ? ExpProgram.compile(e, false) : e;
+        }
+        return result;
+    }
+
+    // program 共用一个栈, 按所有输入里最大的 maxStack 分配, 求值时不分配对象
+    public static ToIntFunction<Object> evaluation(String mode, Object[] inputs) {
+        if (!mode.equals("program")) return e -> ((ArithmeticParser.Exp) e).evaluate();
+        int size = 1;
+        for (Object p: inputs) size = Math.max(size, ((ExpProgram) p).maxStack);
+        int[] stack = new int[size];
+        return p -> ((ExpProgram) p).run(stack);
+    }
+
+    // 输入是一个 count 个非终结符的文法文件 (退出时删除)
+    public static Object[] grammarInputs(int count) throws IOException {
+        Path path = Files.createTempFile("grammar", ".txt");
+        path.toFile().deleteOnExit();
+        Files.write(path, grammarText(count).getBytes(StandardCharsets.UTF_8));
+        return new Object[]{path};
+    }
+
+    // text: 每次读文件、分析和检查; cache: 缓存已经写好, 每次只读缓存
+    public static ToIntFunction<Object> grammarLoader(String mode) throws IOException {
+        if (mode.equals("text")) {
+            return path -> {
+                try {
+                    return Grammar.parse(new String(Files.readAllBytes((Path) path), StandardCharsets.UTF_8))
+                            .compiled.ruleCount();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            };
+        }
+        Path cacheDirectory = Files.createTempDirectory("grammar-cache");
+        cacheDirectory.toFile().deleteOnExit();
+        return path -> {
+            try {
+                Path cache = Grammar.cachePath((Path) path, cacheDirectory);
+                if (!Files.exists(cache)) {
+                    Grammar.load((Path) path, cacheDirectory);
+                    cache.toFile().deleteOnExit();
+                }
+                return Grammar.load((Path) path, cacheDirectory).compiled.ruleCount();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        };
+    }
+
+    // 一个输入是一整批随机句子 (sentences(count, seed))
+    public static Object[] batchInputs(int count) {
+        return new Object[]{sentences(count, 42)};
+    }
+
+    /*
+    * BatchParser 用 threads 个线程分析一整批, 看吞吐量是否随核数线性增长
+    * ForkJoinPool 的线程是守护线程, 不 close 也不会挡住 JVM 退出
+    * */
+    public static ToIntFunction<Object> batchParser(int threads) {
+        BatchParser<MultiTopDownParser, MultiTopDownParser.Comp> parser =
+                BatchParser.of(new MultiTopDownParser(), threads);
+        return batch -> parser.parseAll(castBatch(batch)).size();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<List<String>> castBatch(Object batch) {
+        return (List<List<String>>) batch;
+    }
+}
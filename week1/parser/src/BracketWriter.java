@@ -0,0 +1,60 @@
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/*
+* 把 MultiTopDownParser 的语法树按括号格式一行一棵写进文件
+* e.g. (S (NP (ART the) (N cat)) (VP (V catch)))
+* 直接写进同一个 Writer, 不生成中间字符串, 适合往磁盘上倒大量的树
+* */
+public class BracketWriter implements Closeable {
+    private final Writer out;
+    long trees;
+
+    BracketWriter(Writer out) {
+        this.out = out;
+    }
+
+    static BracketWriter open(Path path) throws IOException {
+        Writer writer = new OutputStreamWriter(Files.newOutputStream(path), StandardCharsets.UTF_8);
+        return new BracketWriter(new BufferedWriter(writer, 1 << 16));
+    }
+
+    void write(MultiTopDownParser.Comp tree) throws IOException {
+        writeTree(tree);
+        out.write('\n');
+        trees++;
+    }
+
+    private void writeTree(MultiTopDownParser.Comp c) throws IOException {
+        out.write('(');
+        if (c instanceof MultiTopDownParser.Atom) {
+            MultiTopDownParser.Atom atom = (MultiTopDownParser.Atom) c;
+            out.write(atom.type);
+            out.write(' ');
+            out.write(atom.value);
+        } else {
+            MultiTopDownParser.Compound compound = (MultiTopDownParser.Compound) c;
+            out.write(compound.type);
+            for (int i = 0; i < compound.e.size(); i++) {
+                out.write(' ');
+                writeTree(compound.e.get(i));
+            }
+        }
+        out.write(')');
+    }
+
+    void flush() throws IOException {
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+}
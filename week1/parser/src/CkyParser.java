@@ -0,0 +1,299 @@
+import java.util.*;
+
+/*
+* CKY: 自底向上, 对每个片段 [start, start + len) 求出它能推出的所有符号
+* 符号不超过 64 个, 所以一个片段的所有符号是一个 long, 整个 chart 是一个 long[] (len x start, 三角形)
+*
+* 规则先转换成二元形式:
+*   A -> B C       直接用
+*   A -> B C D     引入中间符号 @: A -> B @, @ -> C D (中间符号的位排在 Type 的后面)
+*   A -> B         单元规则, 每个格子算完后做一次闭包
+* 合并两个格子只用位运算: 左边每个符号 b, rightOf[b] & right 是能和它组成规则的右边符号, parent[b][c] 是左部的位图
+*
+* 和回溯不同, 时间只和句子长度有关 (n^3), 跟有多少种分析方法无关
+* 不支持空规则; 符号 (包括中间符号) 超过 64 个时构造函数抛 IllegalArgumentException
+* chart 放在对象里反复使用, 所以一个 CkyParser 只能给一个线程用; 别的线程用 fork(), 规则表是只读的, 共享
+* */
+public class CkyParser {
+    private static final int MAX_SYMBOLS = 64;
+
+    // 生成树时用: 原子元素 symbol 对应第 token 个单词, 复合元素有若干个子节点
+    interface TreeBuilder<T> {
+        T atom(int symbol, int token);
+        T compound(int symbol, List<T> children);
+    }
+
+    private final CompiledGrammar g;
+    private final int start;
+    // rightOf[b]: 有规则 A -> b c 的所有 c; parent[b << 6 | c]: 所有这样的 A
+    private final long[] rightOf;
+    private final long[] parent;
+    // 出现在某条二元规则左边的符号
+    private long leftMask;
+    // unary[b]: 通过单元规则能推出 b 的所有符号, 包括 b 自己
+    private final long[] unary;
+    // suffix[rhsStart[r] + i]: 规则 r 的右部从第 i 个符号开始的后缀对应的符号 (最后一个就是它自己, 其余是中间符号)
+    private final int[] suffix;
+    // 能被 start 推出的句子的最短 / 最长长度, 超出范围的句子直接拒绝
+    final int minLength;
+    final int maxLength;
+
+    private long[] chart = new long[0];
+    private int[] rows = new int[0];
+    private long[] leftAt = new long[0];
+    private long[] rightAt = new long[0];
+
+    CkyParser(CompiledGrammar g, int start) {
+        if (g.symbolCount > MAX_SYMBOLS) throw new IllegalArgumentException(g.symbolCount + " symbols, at most 64");
+        this.g = g;
+        this.start = start;
+        this.rightOf = new long[MAX_SYMBOLS];
+        this.parent = new long[MAX_SYMBOLS * MAX_SYMBOLS];
+        this.unary = new long[MAX_SYMBOLS];
+        this.suffix = new int[g.rhs.length];
+
+        int next = g.symbolCount;
+        for (int a = 0; a < g.symbolCount; a++) {
+            for (int r = g.ruleStart[a]; r < g.ruleStart[a + 1]; r++) {
+                int first = g.rhsStart[r];
+                int last = g.rhsStart[r + 1];
+                if (first == last) throw new IllegalArgumentException("empty rule for symbol " + a);
+                suffix[last - 1] = g.rhs[last - 1];
+                for (int i = last - 2; i > first; i--) {
+                    if (next == MAX_SYMBOLS) throw new IllegalArgumentException("more than 64 symbols after binarization");
+                    suffix[i] = next++;
+                    binary(suffix[i], g.rhs[i], suffix[i + 1]);
+                }
+                suffix[first] = a;
+                if (last - first >= 2) binary(a, g.rhs[first], suffix[first + 1]);
+            }
+        }
+
+        for (int b = 0; b < MAX_SYMBOLS; b++) unary[b] = 1L << b;
+        // A -> B: 能推出 A 的也都能推出 B, 反复传播直到不再变化
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int a = 0; a < g.symbolCount; a++) {
+                for (int r = g.ruleStart[a]; r < g.ruleStart[a + 1]; r++) {
+                    if (g.rhsStart[r + 1] - g.rhsStart[r] != 1) continue;
+                    int b = g.rhs[g.rhsStart[r]];
+                    long merged = unary[b] | unary[a];
+                    if (merged != unary[b]) {
+                        unary[b] = merged;
+                        changed = true;
+                    }
+                }
+            }
+        }
+
+        this.minLength = minLength(start);
+        this.maxLength = maxLength(start, new byte[g.symbolCount], new int[g.symbolCount]);
+    }
+
+    // 给别的线程用的副本: 规则表共享, chart 各有一份
+    private CkyParser(CkyParser prototype) {
+        this.g = prototype.g;
+        this.start = prototype.start;
+        this.rightOf = prototype.rightOf;
+        this.parent = prototype.parent;
+        this.leftMask = prototype.leftMask;
+        this.unary = prototype.unary;
+        this.suffix = prototype.suffix;
+        this.minLength = prototype.minLength;
+        this.maxLength = prototype.maxLength;
+    }
+
+    CkyParser fork() {
+        return new CkyParser(this);
+    }
+
+    private void binary(int a, int b, int c) {
+        rightOf[b] |= 1L << c;
+        parent[b << 6 | c] |= 1L << a;
+        leftMask |= 1L << b;
+    }
+
+    private int minLength(int symbol) {
+        int[] min = new int[g.symbolCount];
+        for (int s = 0; s < g.symbolCount; s++) min[s] = g.isNonterminal(s) ? Integer.MAX_VALUE : 1;
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int a = 0; a < g.symbolCount; a++) {
+                for (int r = g.ruleStart[a]; r < g.ruleStart[a + 1]; r++) {
+                    long sum = 0;
+                    for (int i = g.rhsStart[r]; i < g.rhsStart[r + 1]; i++) sum += min[g.rhs[i]];
+                    if (sum < min[a]) {
+                        min[a] = (int) sum;
+                        changed = true;
+                    }
+                }
+            }
+        }
+        return min[symbol];
+    }
+
+    // state: 0 没访问过, 1 正在访问 (又遇到说明有递归, 长度没有上限), 2 已经算完
+    private int maxLength(int symbol, byte[] state, int[] max) {
+        if (!g.isNonterminal(symbol)) return 1;
+        if (state[symbol] == 2) return max[symbol];
+        if (state[symbol] == 1) return Integer.MAX_VALUE;
+        state[symbol] = 1;
+        long best = 0;
+        for (int r = g.ruleStart[symbol]; r < g.ruleStart[symbol + 1]; r++) {
+            long sum = 0;
+            for (int i = g.rhsStart[r]; i < g.rhsStart[r + 1]; i++) sum += maxLength(g.rhs[i], state, max);
+            best = Math.max(best, sum);
+        }
+        state[symbol] = 2;
+        max[symbol] = (int) Math.min(best, Integer.MAX_VALUE);
+        return max[symbol];
+    }
+
+    private long close(long cell) {
+        long result = cell;
+        while (cell != 0) {
+            result |= unary[Long.numberOfTrailingZeros(cell)];
+            cell &= cell - 1;
+        }
+        return result;
+    }
+
+    private long combine(long left, long right) {
+        long result = 0;
+        while (left != 0) {
+            int b = Long.numberOfTrailingZeros(left);
+            left &= left - 1;
+            long rights = rightOf[b] & right;
+            while (rights != 0) {
+                result |= parent[b << 6 | Long.numberOfTrailingZeros(rights)];
+                rights &= rights - 1;
+            }
+        }
+        return result;
+    }
+
+    // tags[i]: 第 i 个单词所有可能的词性 (1L << ordinal), 和 Tokens.tags 一样
+    boolean accepts(long[] tags, int length) {
+        if (length < minLength || length > maxLength) return false;
+        fill(tags, length);
+        return has(length, 0, start);
+    }
+
+    /*
+    * 按长度从小到大填 chart; 片段 [from, end) 要试所有的分割点 p
+    * 大部分格子是空的, 逐个 p 去试浪费时间, 所以另外记两组位图 (下标是位置):
+    *   leftAt[from] 的第 p 位: [from, p) 里有能做二元规则左边的符号
+    *   rightAt[end] 的第 p 位: [p, end) 不是空的
+    * 两个按位与一下就是所有能用的分割点, 64 个分割点一次判断完
+    * */
+    private void fill(long[] tags, int length) {
+        if (rows.length < length + 1) rows = new int[length + 1];
+        // 长度为 len 的片段从 rows[len] 开始, 一共 length - len + 1 个
+        for (int len = 1; len <= length; len++) rows[len] = len == 1 ? 0 : rows[len - 1] + length - len + 2;
+        int size = length * (length + 1) / 2;
+        if (chart.length < size) chart = new long[size];
+        int words = (length + 64) >>> 6;
+        int bits = (length + 1) * words;
+        if (leftAt.length < bits) {
+            leftAt = new long[bits];
+            rightAt = new long[bits];
+        } else {
+            Arrays.fill(leftAt, 0, bits, 0L);
+            Arrays.fill(rightAt, 0, bits, 0L);
+        }
+
+        for (int i = 0; i < length; i++) set(i, i + 1, close(tags[i]), words);
+        for (int len = 2; len <= length; len++) {
+            for (int from = 0, end = len; end <= length; from++, end++) {
+                long cell = 0;
+                for (int w = (from + 1) >>> 6, last = (end - 1) >>> 6; w <= last; w++) {
+                    long splits = leftAt[from * words + w] & rightAt[end * words + w];
+                    while (splits != 0) {
+                        int p = (w << 6) + Long.numberOfTrailingZeros(splits);
+                        splits &= splits - 1;
+                        cell |= combine(chart[rows[p - from] + from] & leftMask, chart[rows[end - p] + p]);
+                    }
+                }
+                set(from, end, cell == 0 ? 0 : close(cell), words);
+            }
+        }
+    }
+
+    private void set(int from, int end, long cell, int words) {
+        chart[rows[end - from] + from] = cell;
+        if (cell == 0) return;
+        rightAt[end * words + (from >>> 6)] |= 1L << from;
+        if ((cell & leftMask) != 0) leftAt[from * words + (end >>> 6)] |= 1L << end;
+    }
+
+    private boolean has(int len, int from, int symbol) {
+        return (chart[rows[len] + from] & (1L << symbol)) != 0;
+    }
+
+    /*
+    * 生成一棵树, 句子不合法时返回 null
+    * 按规则的顺序尝试, 每一步用 chart 判断剩下的部分能不能推出来 (中间符号就是后缀), 所以不需要回溯
+    * 只有同一个片段上的单元规则链需要避开环: visiting 是这条链上已经出现过的符号
+    * */
+    <T> T parse(long[] tags, int length, TreeBuilder<T> builder) {
+        if (!accepts(tags, length)) return null;
+        return build(start, 0, length, 0L, builder);
+    }
+
+    private <T> T build(int symbol, int from, int len, long visiting, TreeBuilder<T> builder) {
+        if (!g.isNonterminal(symbol)) return len == 1 ? builder.atom(symbol, from) : null;
+        visiting |= 1L << symbol;
+        for (int r = g.ruleStart[symbol]; r < g.ruleStart[symbol + 1]; r++) {
+            int first = g.rhsStart[r];
+            int last = g.rhsStart[r + 1];
+            if (last - first == 1) {
+                int child = g.rhs[first];
+                if ((visiting & (1L << child)) != 0 || !has(len, from, child)) continue;
+                T t = build(child, from, len, visiting, builder);
+                if (t != null) return builder.compound(symbol, Collections.singletonList(t));
+                continue;
+            }
+            List<T> children = new ArrayList<>(last - first);
+            int pos = from;
+            int remaining = len;
+            for (int i = first; i < last - 1 && children != null; i++) {
+                int m = 1;
+                while (m < remaining && !(has(m, pos, g.rhs[i]) && has(remaining - m, pos + m, suffix[i + 1]))) m++;
+                T t = m < remaining ? build(g.rhs[i], pos, m, 0L, builder) : null;
+                if (t == null) {
+                    children = null;
+                } else {
+                    children.add(t);
+                    pos += m;
+                    remaining -= m;
+                }
+            }
+            if (children == null) continue;
+            T t = build(g.rhs[last - 1], pos, remaining, 0L, builder);
+            if (t == null) continue;
+            children.add(t);
+            return builder.compound(symbol, children);
+        }
+        return null;
+    }
+
+    public static void main(String[] args) {
+        MultiTopDownParser parser = new MultiTopDownParser();
+        for (String s: new String[]{"the ugly cat receive a beautiful pen", "a cat catch", "the cat the dog"}) {
+            List<String> words = Arrays.asList(s.split(" "));
+            System.out.println(s);
+            System.out.println("  parseEntry: " + parser.parseEntry(words).pretty());
+            System.out.println("  parseCky:   " + parser.parseCky(words).pretty());
+        }
+
+        // VP -> V NP VP 让句子可以任意长, 把最后一个词换成 the 以后 CKY 拒绝整个句子
+        MultiTopDownParser chain = BenchmarkInputs.chainParser();
+        List<String> words = BenchmarkInputs.chain(31);
+        List<String> broken = new ArrayList<>(words);
+        broken.set(words.size() - 1, "the");
+        System.out.println("len=31 parseCky: " + (chain.parseCky(words) instanceof MultiTopDownParser.Compound)
+                + ", broken: " + (chain.parseCky(broken) instanceof MultiTopDownParser.Compound));
+    }
+}
@@ -0,0 +1,243 @@
+import java.util.*;
+
+/*
+* 把 Map<Type, List<List<Type>>> 形式的规则编译成紧凑的 int 数组
+* 符号用 int 表示: 内置文法是 Type.ordinal(), 从文件读进来的是 Grammar 给的编号
+* - 非终结符 nt 的规则编号是 ruleStart[nt] .. ruleStart[nt + 1] - 1, 顺序与 rules 中一致
+* - 规则 r 的右部是 rhs[rhsStart[r]] .. rhs[rhsStart[r + 1] - 1]
+* - nonterminal 是位图, 有规则的符号对应的位为 1
+* 分析时只做数组下标访问, 没有 hash, 没有装箱, 也不用创建 iterator
+*
+* 同时算好 FIRST 集, 用来在展开之前排除不可能成功的规则 (当前单词的词性不在规则的 FIRST 集里)
+* 这些集合是原子元素的位图, 只在所有原子元素的编号都小于 64 时计算 (非终结符有多少个都可以, Grammar 把原子元素排在前面);
+* 否则 lookahead 全是 -1L, 相当于不剪枝
+* */
+public class CompiledGrammar {
+    final int symbolCount;
+    final int[] ruleStart;
+    final int[] rhsStart;
+    final int[] rhs;
+    final long[] nonterminal;
+    // 原子元素的编号都小于 64, 下面的 FIRST / lookahead 是准确的
+    final boolean bitmaps;
+    // 能推出空串的符号, 和 nonterminal 一样是按 64 位分段的位图
+    final long[] nullable;
+    // first[s]: s 推出的串的第一个原子元素可能是哪些; 原子元素就是它自己
+    final long[] first;
+    // lookahead[s] / ruleLookahead[r]: 分析 s (用规则 r 展开) 时当前单词必须有其中一个词性, 能推出空串时是 -1L
+    final long[] lookahead;
+    final long[] ruleLookahead;
+
+    // nullable / first 为 null 时现算, 否则是之前算好的 (Grammar 的二进制缓存里读出来的)
+    private CompiledGrammar(int symbolCount, int[] ruleStart, int[] rhsStart, int[] rhs, long[] nonterminal,
+                            long[] nullable, long[] first) {
+        this.symbolCount = symbolCount;
+        this.ruleStart = ruleStart;
+        this.rhsStart = rhsStart;
+        this.rhs = rhs;
+        this.nonterminal = nonterminal;
+        boolean bitmaps = true;
+        for (int s = 64; s < symbolCount && bitmaps; s++) bitmaps = isNonterminal(s);
+        this.bitmaps = bitmaps;
+        this.lookahead = new long[symbolCount];
+        this.ruleLookahead = new long[ruleCount()];
+        this.nullable = nullable != null ? nullable : computeNullable();
+        if (!bitmaps) {
+            this.first = new long[symbolCount];
+            Arrays.fill(this.first, -1L);
+            Arrays.fill(this.lookahead, -1L);
+            Arrays.fill(this.ruleLookahead, -1L);
+            return;
+        }
+        this.first = first != null ? first : computeFirst();
+        for (int s = 0; s < symbolCount; s++) lookahead[s] = isNullable(s) ? -1L : this.first[s];
+        for (int r = 0; r < ruleLookahead.length; r++) {
+            ruleLookahead[r] = isNullable(rhsStart[r], rhsStart[r + 1]) ? -1L : first(rhsStart[r], rhsStart[r + 1]);
+        }
+    }
+
+    private long[] computeNullable() {
+        long[] result = new long[(symbolCount + 63) / 64];
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int a = 0; a < symbolCount; a++) {
+                if ((result[a >>> 6] & (1L << a)) != 0) continue;
+                for (int r = ruleStart[a]; r < ruleStart[a + 1]; r++) {
+                    boolean empty = true;
+                    for (int i = rhsStart[r]; i < rhsStart[r + 1] && empty; i++) {
+                        empty = (result[rhs[i] >>> 6] & (1L << rhs[i])) != 0;
+                    }
+                    if (empty) {
+                        result[a >>> 6] |= 1L << a;
+                        changed = true;
+                        break;
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    // 在构造函数里调用, this.first 还没赋值, 所以 first(from, to) 用不了, 直接在 first 上算
+    private long[] computeFirst() {
+        long[] first = new long[symbolCount];
+        for (int s = 0; s < symbolCount; s++) first[s] = isNonterminal(s) ? 0 : 1L << s;
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int a = 0; a < symbolCount; a++) {
+                for (int r = ruleStart[a]; r < ruleStart[a + 1]; r++) {
+                    long merged = first[a];
+                    for (int i = rhsStart[r]; i < rhsStart[r + 1]; i++) {
+                        merged |= first[rhs[i]];
+                        if (!isNullable(rhs[i])) break;
+                    }
+                    if (merged != first[a]) {
+                        first[a] = merged;
+                        changed = true;
+                    }
+                }
+            }
+        }
+        return first;
+    }
+
+    boolean isNullable(int symbol) {
+        return (nullable[symbol >>> 6] & (1L << symbol)) != 0;
+    }
+
+    // rhs[from..to) 能不能推出空串
+    boolean isNullable(int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (!isNullable(rhs[i])) return false;
+        }
+        return true;
+    }
+
+    // rhs[from..to) 的 FIRST 集: 依次合并, 直到遇到不能推出空串的符号
+    long first(int from, int to) {
+        long result = 0;
+        for (int i = from; i < to; i++) {
+            result |= first[rhs[i]];
+            if (!isNullable(rhs[i])) break;
+        }
+        return result;
+    }
+
+    /*
+    * FOLLOW 集: 句子里紧跟在 s 后面的原子元素可能是哪些, end 表示句子结束
+    * 只在 bitmaps 而且 end 小于 64 时有意义
+    * */
+    long[] follow(int start, int end) {
+        long[] follow = new long[symbolCount];
+        follow[start] = 1L << end;
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int a = 0; a < symbolCount; a++) {
+                for (int r = ruleStart[a]; r < ruleStart[a + 1]; r++) {
+                    int to = rhsStart[r + 1];
+                    for (int i = rhsStart[r]; i < to; i++) {
+                        long merged = follow[rhs[i]] | first(i + 1, to);
+                        if (isNullable(i + 1, to)) merged |= follow[a];
+                        if (merged != follow[rhs[i]]) {
+                            follow[rhs[i]] = merged;
+                            changed = true;
+                        }
+                    }
+                }
+            }
+        }
+        return follow;
+    }
+
+    /*
+    * 每条规则的预测集: FIRST(右部), 右部能推出空串时再加上 FOLLOW(左部)
+    * 对真正的上下文无关文法 (比如回溯的 checker) 是准确的: 当前单词的词性不在预测集里, 这条规则一定走不通
+    * */
+    long[] predict(int start, int end) {
+        long[] predict = new long[ruleCount()];
+        if (!bitmaps || end >= 64) {
+            Arrays.fill(predict, -1L);
+            return predict;
+        }
+        long[] follow = follow(start, end);
+        for (int a = 0; a < symbolCount; a++) {
+            for (int r = ruleStart[a]; r < ruleStart[a + 1]; r++) {
+                predict[r] = first(rhsStart[r], rhsStart[r + 1]);
+                if (isNullable(rhsStart[r], rhsStart[r + 1])) predict[r] |= follow[a];
+            }
+        }
+        return predict;
+    }
+
+    // LL(1): 每个非终结符的各条规则的预测集两两不相交, 每个词性最多只有一条规则可选
+    boolean isLL1(long[] predict) {
+        for (int a = 0; a < symbolCount; a++) {
+            long seen = 0;
+            for (int r = ruleStart[a]; r < ruleStart[a + 1]; r++) {
+                if ((seen & predict[r]) != 0) return false;
+                seen |= predict[r];
+            }
+        }
+        return true;
+    }
+
+    static <E extends Enum<E>> CompiledGrammar compile(Class<E> type, Map<E, List<List<E>>> rules) {
+        E[] symbols = type.getEnumConstants();
+        int symbolCount = symbols.length;
+
+        int ruleCount = 0;
+        int rhsCount = 0;
+        for (List<List<E>> alternatives: rules.values()) {
+            ruleCount += alternatives.size();
+            for (List<E> alternative: alternatives) rhsCount += alternative.size();
+        }
+
+        int[] ruleStart = new int[symbolCount + 1];
+        int[] rhsStart = new int[ruleCount + 1];
+        int[] rhs = new int[rhsCount];
+        long[] nonterminal = new long[(symbolCount + 63) / 64];
+
+        // 按 ordinal 顺序排列规则, 这样每个非终结符的规则是连续的一段
+        int r = 0;
+        int k = 0;
+        for (E symbol: symbols) {
+            int nt = symbol.ordinal();
+            ruleStart[nt] = r;
+            List<List<E>> alternatives = rules.get(symbol);
+            if (alternatives == null) continue;
+            nonterminal[nt >>> 6] |= 1L << nt;
+            for (List<E> alternative: alternatives) {
+                rhsStart[r++] = k;
+                for (E child: alternative) rhs[k++] = child.ordinal();
+            }
+        }
+        ruleStart[symbolCount] = r;
+        rhsStart[ruleCount] = k;
+        return new CompiledGrammar(symbolCount, ruleStart, rhsStart, rhs, nonterminal, null, null);
+    }
+
+    // 已经排好的 int 数组 (比如 Grammar 从文件读进来的), 有规则的符号是非终结符
+    static CompiledGrammar of(int symbolCount, int[] ruleStart, int[] rhsStart, int[] rhs) {
+        return of(symbolCount, ruleStart, rhsStart, rhs, null, null);
+    }
+
+    // 同上, nullable / first 是之前算好的 (缓存里的), 不再重新算
+    static CompiledGrammar of(int symbolCount, int[] ruleStart, int[] rhsStart, int[] rhs, long[] nullable, long[] first) {
+        long[] nonterminal = new long[(symbolCount + 63) / 64];
+        for (int nt = 0; nt < symbolCount; nt++) {
+            if (ruleStart[nt + 1] > ruleStart[nt]) nonterminal[nt >>> 6] |= 1L << nt;
+        }
+        return new CompiledGrammar(symbolCount, ruleStart, rhsStart, rhs, nonterminal, nullable, first);
+    }
+
+    boolean isNonterminal(int symbol) {
+        return (nonterminal[symbol >>> 6] & (1L << symbol)) != 0;
+    }
+
+    int ruleCount() {
+        return rhsStart.length - 1;
+    }
+}
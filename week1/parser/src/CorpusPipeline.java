@@ -0,0 +1,224 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiFunction;
+import java.util.function.Supplier;
+
+/*
+* 流式语料处理: 读文件 -> 分词 -> 分析 -> 写结果, 每行一个句子, 输出也是每行一个结果, 顺序与输入一致
+*
+* 三个阶段:
+*   读线程: 按行读取, 分词, 每 BATCH 行打成一个 Batch 放进 input 队列
+*   分析线程 (多个): 各自用 fork() 出来的 parser 分析, 结果放进 output 队列
+*   写线程 (调用 run 的线程): 按 Batch 编号重新排好顺序写出去
+* 队列都是有界的, 另外用 inFlight 信号量限制同时在处理中的 Batch 个数 (包括写线程等待重排的),
+* 读线程拿不到许可就阻塞, 所以不管输入是 1 MB 还是 50 GB, 堆的占用都是固定的
+* */
+public class CorpusPipeline<P, R> {
+    private static final int BATCH = 256;
+
+    interface Sink<R> {
+        void write(R result) throws IOException;
+    }
+
+    static class Batch<T> {
+        final long seq;
+        final List<T> items;
+        Batch(long seq, List<T> items) {
+            this.seq = seq;
+            this.items = items;
+        }
+    }
+
+    // 队列结束标记, 每个分析线程收到一个
+    private static final Batch<?> END = new Batch<>(-1, Collections.emptyList());
+
+    private final Supplier<P> factory;
+    private final BiFunction<P, List<String>, R> parse;
+    private final int threads;
+    private final int maxInFlight;
+
+    CorpusPipeline(Supplier<P> factory, BiFunction<P, List<String>, R> parse, int threads) {
+        this.factory = factory;
+        this.parse = parse;
+        this.threads = threads;
+        this.maxInFlight = threads * 4;
+    }
+
+    // 按空白切分并转成小写, 和 main 里的 s.toLowerCase().split(" ") 一致, 但连续空白不会产生空串
+    static List<String> tokenize(String line) {
+        List<String> words = new ArrayList<>();
+        int i = 0;
+        int n = line.length();
+        while (i < n) {
+            while (i < n && Character.isWhitespace(line.charAt(i))) i++;
+            int start = i;
+            while (i < n && !Character.isWhitespace(line.charAt(i))) i++;
+            if (i > start) words.add(line.substring(start, i).toLowerCase());
+        }
+        return words;
+    }
+
+    /*
+    * 出错时 (读文件, 分析, 或者 sink 抛异常) 记下第一个异常, run 把它抛出去:
+    *   读线程不再读后面的行
+    *   分析线程继续从 input 取, 直到拿到自己的 END, 之后的批次不再分析, 拿到的批次的许可由自己还掉
+    *   写线程不再写, 等着重排的和之后到的批次都还掉许可
+    * sink 抛异常时写线程直接退出, finally 里中断读线程和分析线程并等它们结束, 不会留下阻塞的线程
+    * */
+    @SuppressWarnings("unchecked")
+    long run(Path input, Sink<R> sink) throws IOException, InterruptedException {
+        BlockingQueue<Batch<List<String>>> in = new ArrayBlockingQueue<>(maxInFlight + threads);
+        BlockingQueue<Batch<R>> out = new ArrayBlockingQueue<>(maxInFlight + threads);
+        Semaphore inFlight = new Semaphore(maxInFlight);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+
+        Thread reader = new Thread(() -> {
+            try (BufferedReader lines = Files.newBufferedReader(input, StandardCharsets.UTF_8)) {
+                long seq = 0;
+                List<List<String>> items = new ArrayList<>(BATCH);
+                String line;
+                while (failure.get() == null && (line = lines.readLine()) != null) {
+                    items.add(tokenize(line));
+                    if (items.size() == BATCH) {
+                        inFlight.acquire();
+                        in.put(new Batch<>(seq++, items));
+                        items = new ArrayList<>(BATCH);
+                    }
+                }
+                if (failure.get() == null && !items.isEmpty()) {
+                    inFlight.acquire();
+                    in.put(new Batch<>(seq, items));
+                }
+            } catch (Throwable e) {
+                failure.compareAndSet(null, e);
+            } finally {
+                // 队列里最多有 maxInFlight 个批次 (每个都拿着许可), 所以 END 一定放得下
+                for (int i = 0; i < threads; i++) in.add((Batch<List<String>>) END);
+            }
+        }, "pipeline-reader");
+
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            workers.add(new Thread(() -> {
+                try {
+                    P parser = null;
+                    Batch<List<String>> batch;
+                    while ((batch = in.take()) != END) {
+                        List<R> results = null;
+                        if (failure.get() == null) {
+                            try {
+                                if (parser == null) parser = factory.get();
+                                results = new ArrayList<>(batch.items.size());
+                                for (List<String> s: batch.items) results.add(parse.apply(parser, s));
+                            } catch (Throwable e) {
+                                failure.compareAndSet(null, e);
+                                results = null;
+                            }
+                        }
+                        if (results == null) {
+                            // 这个批次不会交给写线程, 许可在这里还掉
+                            inFlight.release();
+                        } else {
+                            out.put(new Batch<>(batch.seq, results));
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    // run 出错退出时中断, 直接结束
+                } finally {
+                    out.add((Batch<R>) END);
+                }
+            }, "pipeline-worker-" + t));
+        }
+
+        reader.start();
+        workers.forEach(Thread::start);
+
+        boolean done = false;
+        try {
+            // 写: 按编号排好序再输出
+            Map<Long, Batch<R>> pending = new HashMap<>();
+            long next = 0;
+            long written = 0;
+            int finished = 0;
+            while (finished < threads) {
+                Batch<R> batch = out.take();
+                if (batch == END) {
+                    finished++;
+                    continue;
+                }
+                if (failure.get() != null) {
+                    inFlight.release(pending.size() + 1);
+                    pending.clear();
+                    continue;
+                }
+                pending.put(batch.seq, batch);
+                while ((batch = pending.remove(next)) != null) {
+                    for (R result: batch.items) sink.write(result);
+                    written += batch.items.size();
+                    next++;
+                    inFlight.release();
+                }
+            }
+            done = true;
+
+            Throwable e = failure.get();
+            if (e instanceof IOException) throw (IOException) e;
+            if (e instanceof RuntimeException) throw (RuntimeException) e;
+            if (e instanceof Error) throw (Error) e;
+            if (e != null) throw new IllegalStateException(e);
+            return written;
+        } finally {
+            if (!done) {
+                reader.interrupt();
+                workers.forEach(Thread::interrupt);
+            }
+            reader.join();
+            for (Thread worker: workers) worker.join();
+        }
+    }
+
+    /*
+    * 用法: java CorpusPipeline 输入文件 输出文件 [trees|flags] [线程数]
+    *   trees: MultiTopDownParser, 每行写一棵括号格式的树, 不合法的句子写 (ERROR error)
+    *   flags: BackTracingTopDownChecker, 每行写 ACCEPT / REJECT / BUDGET_EXCEEDED
+    * */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        Path input = Paths.get(args[0]);
+        Path output = Paths.get(args[1]);
+        String mode = args.length > 2 ? args[2] : "trees";
+        int threads = args.length > 3 ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors();
+
+        long start = System.nanoTime();
+        long written;
+        if (mode.equals("flags")) {
+            BackTracingTopDownChecker prototype = new BackTracingTopDownChecker(Collections.emptyList());
+            CorpusPipeline<BackTracingTopDownChecker, BackTracingTopDownChecker.Outcome> pipeline =
+                    new CorpusPipeline<>(prototype::fork, BackTracingTopDownChecker::check, threads);
+            try (Writer writer = new BufferedWriter(Files.newBufferedWriter(output, StandardCharsets.UTF_8), 1 << 16)) {
+                written = pipeline.run(input, outcome -> {
+                    writer.write(outcome.name());
+                    writer.write('\n');
+                });
+            }
+        } else {
+            MultiTopDownParser prototype = new MultiTopDownParser();
+            CorpusPipeline<MultiTopDownParser, MultiTopDownParser.Comp> pipeline =
+                    new CorpusPipeline<>(prototype::fork, MultiTopDownParser::parseEntry, threads);
+            try (BracketWriter writer = BracketWriter.open(output)) {
+                written = pipeline.run(input, writer::write);
+            }
+        }
+        System.out.printf("%d sentences in %.1f s%n", written, (System.nanoTime() - start) / 1e9);
+    }
+}
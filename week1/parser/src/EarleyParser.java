@@ -0,0 +1,274 @@
+import java.util.*;
+
+/*
+* Earley 图表分析 (chart parsing)
+* 复用 MultiTopDownParser 的文法 (grammar, names, start; 内置的或者 load 进来的), 输出同样的 Compound / Atom 语法树
+* genericParse 每条规则都从头试, 共享的前缀 (NP -> ART N, NP -> ART ADJ N 都要读 ART) 会被重复分析, 最坏指数级
+* 这里每个位置维护一个 item 集合, predict / scan / complete 三种操作, 最坏 O(n^3)
+* */
+public class EarleyParser {
+    // 一条规则: lhs -> rhs, id 是它在 CompiledGrammar 里的编号
+    static class Rule {
+        int id;
+        int lhs;
+        int[] rhs;
+        Rule(int id, int lhs, int[] rhs) {
+            this.id = id;
+            this.lhs = lhs;
+            this.rhs = rhs;
+        }
+    }
+
+    // Earley item: rule 中已经匹配到 dot 的位置, 该规则从 origin 开始
+    static class Item {
+        Rule rule;
+        int dot;
+        int origin;
+        Item(Rule rule, int dot, int origin) {
+            this.rule = rule;
+            this.dot = dot;
+            this.origin = origin;
+        }
+        boolean isComplete() {
+            return dot == rule.rhs.length;
+        }
+        int next() {
+            return rule.rhs[dot];
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Item)) return false;
+            Item other = (Item) o;
+            return rule == other.rule && dot == other.dot && origin == other.origin;
+        }
+
+        @Override
+        public int hashCode() {
+            return (System.identityHashCode(rule) * 31 + dot) * 31 + origin;
+        }
+    }
+
+    // 某个位置上的 item 集合: list 保持加入顺序 (作为工作队列), set 用来去重
+    static class ItemSet {
+        List<Item> items = new ArrayList<>();
+        Set<Item> seen = new HashSet<>();
+        void add(Item item) {
+            if (seen.add(item)) items.add(item);
+        }
+        boolean contains(Rule rule, int dot, int origin) {
+            return seen.contains(new Item(rule, dot, origin));
+        }
+    }
+
+    MultiTopDownParser grammar;
+    // 构造时 grammar 的文法; 之后 grammar 换了文法 (load / compile) 要重新构造 EarleyParser
+    CompiledGrammar g;
+    String[] names;
+    int start;
+    // 所有规则, 下标是 CompiledGrammar 里的编号; 非终结符 a 的规则是 rules[g.ruleStart[a]] .. rules[g.ruleStart[a + 1] - 1]
+    Rule[] rules;
+    // 可以推出空串的非终结符
+    boolean[] nullable;
+    int maxRhs;
+
+    EarleyParser(MultiTopDownParser grammar) {
+        this.grammar = grammar;
+        this.g = grammar.grammar;
+        this.names = grammar.names;
+        this.start = grammar.start;
+        this.rules = new Rule[g.ruleCount()];
+        for (int a = 0; a < g.symbolCount; a++) {
+            for (int r = g.ruleStart[a]; r < g.ruleStart[a + 1]; r++) {
+                this.rules[r] = new Rule(r, a, Arrays.copyOfRange(g.rhs, g.rhsStart[r], g.rhsStart[r + 1]));
+                maxRhs = Math.max(maxRhs, this.rules[r].rhs.length);
+            }
+        }
+        this.nullable = computeNullable();
+    }
+
+    private boolean[] computeNullable() {
+        boolean[] result = new boolean[g.symbolCount];
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (Rule rule: rules) {
+                if (result[rule.lhs]) continue;
+                boolean empty = true;
+                for (int symbol: rule.rhs) empty &= result[symbol];
+                if (empty) {
+                    result[rule.lhs] = true;
+                    changed = true;
+                }
+            }
+        }
+        return result;
+    }
+
+    private boolean isAtom(int symbol) {
+        return !g.isNonterminal(symbol);
+    }
+
+    private ItemSet[] recognize(Tokens tokens) {
+        int n = tokens.length;
+        ItemSet[] chart = new ItemSet[n + 1];
+        for (int i = 0; i <= n; i++) chart[i] = new ItemSet();
+        for (int r = g.ruleStart[start]; r < g.ruleStart[start + 1]; r++) chart[0].add(new Item(rules[r], 0, 0));
+
+        for (int i = 0; i <= n; i++) {
+            ItemSet set = chart[i];
+            // 遍历过程中 set.items 会增长, 所以用下标
+            for (int k = 0; k < set.items.size(); k++) {
+                Item item = set.items.get(k);
+                if (item.isComplete()) {
+                    // complete: 把所有在 origin 处等待 lhs 的 item 向前推进
+                    ItemSet from = chart[item.origin];
+                    for (int m = 0; m < from.items.size(); m++) {
+                        Item waiting = from.items.get(m);
+                        if (!waiting.isComplete() && waiting.next() == item.rule.lhs) {
+                            set.add(new Item(waiting.rule, waiting.dot + 1, waiting.origin));
+                        }
+                    }
+                    continue;
+                }
+                int next = item.next();
+                if (isAtom(next)) {
+                    // scan
+                    // 单词的词性中有 next 就可以移进, 所有词性组合在同一张图表里一起分析
+                    if (i < n && (tokens.tags[i] & (1L << next)) != 0) {
+                        chart[i + 1].add(new Item(item.rule, item.dot + 1, item.origin));
+                    }
+                } else {
+                    // predict
+                    for (int r = g.ruleStart[next]; r < g.ruleStart[next + 1]; r++) set.add(new Item(rules[r], 0, i));
+                    // 可空的非终结符直接跳过 (Aycock & Horspool)
+                    if (nullable[next]) set.add(new Item(item.rule, item.dot + 1, item.origin));
+                }
+            }
+        }
+        return chart;
+    }
+
+    // 是否存在 symbol 从 start 到 end 的完整推导
+    private boolean derives(ItemSet[] chart, Tokens tokens, int symbol, int start, int end) {
+        if (isAtom(symbol)) return end == start + 1 && (tokens.tags[start] & (1L << symbol)) != 0;
+        for (int r = g.ruleStart[symbol]; r < g.ruleStart[symbol + 1]; r++) {
+            if (chart[end].contains(rules[r], rules[r].rhs.length, start)) return true;
+        }
+        return false;
+    }
+
+    /*
+    * 从图表中取出一棵树
+    * 有歧义时按 rules 中的顺序选择第一条能成功的规则, 与 genericParse 的行为一致
+    * 子节点从后往前找切分点: item (rule, k, start) 在 chart[m] 中, 说明 rhs 前 k 个成分恰好推出 start..m, 所以不会走进死路
+    * */
+    private MultiTopDownParser.Comp build(ItemSet[] chart, Tokens tokens, int symbol, int start, int end) {
+        if (isAtom(symbol)) return new MultiTopDownParser.Atom(tokens.word(start), names[symbol]);
+        for (int r = g.ruleStart[symbol]; r < g.ruleStart[symbol + 1]; r++) {
+            Rule rule = rules[r];
+            int size = rule.rhs.length;
+            if (!chart[end].contains(rule, size, start)) continue;
+            MultiTopDownParser.Comp[] children = new MultiTopDownParser.Comp[size];
+            int right = end;
+            for (int k = size - 1; k >= 0; k--) {
+                int child = rule.rhs[k];
+                for (int m = start; m <= right; m++) {
+                    if (chart[m].contains(rule, k, start) && derives(chart, tokens, child, m, right)) {
+                        children[k] = build(chart, tokens, child, m, right);
+                        right = m;
+                        break;
+                    }
+                }
+            }
+            return new MultiTopDownParser.Compound(names[symbol], Arrays.asList(children));
+        }
+        return new MultiTopDownParser.Atom("error", MultiTopDownParser.Type.ERROR);
+    }
+
+    public MultiTopDownParser.Comp parseEntry(List<String> s) {
+        Tokens tokens = grammar.tokenize(s);
+        ItemSet[] chart = recognize(tokens);
+        if (!derives(chart, tokens, start, 0, tokens.length)) {
+            return new MultiTopDownParser.Atom("error", MultiTopDownParser.Type.ERROR);
+        }
+        return build(chart, tokens, start, 0, tokens.length);
+    }
+
+    // 构造森林时的备忘表: 相同的 (符号, start, end) 和 (rule, dot, start, end) 只建一个节点
+    private class ForestBuilder {
+        ItemSet[] chart;
+        Tokens tokens;
+        long width;
+        Map<Long, ParseForest.SymbolNode> symbols = new HashMap<>();
+        Map<Long, ParseForest.RuleNode> prefixes = new HashMap<>();
+
+        ForestBuilder(ItemSet[] chart, Tokens tokens) {
+            this.chart = chart;
+            this.tokens = tokens;
+            this.width = tokens.length + 1;
+        }
+
+        ParseForest.SymbolNode symbol(int symbol, int start, int end) {
+            long key = (symbol * width + start) * width + end;
+            ParseForest.SymbolNode node = symbols.get(key);
+            if (node != null) return node;
+            if (isAtom(symbol)) {
+                node = new ParseForest.SymbolNode(names[symbol], start, end, tokens.word(start));
+                symbols.put(key, node);
+                return node;
+            }
+            node = new ParseForest.SymbolNode(names[symbol], start, end, null);
+            symbols.put(key, node);
+            // 空规则只在 start == end 时完成, 对应一个 dot == 0 的 RuleNode (ε 结点)
+            for (int r = g.ruleStart[symbol]; r < g.ruleStart[symbol + 1]; r++) {
+                Rule rule = rules[r];
+                int size = rule.rhs.length;
+                if (chart[end].contains(rule, size, start)) {
+                    node.alternatives.add(prefix(rule, size, start, end));
+                }
+            }
+            return node;
+        }
+
+        ParseForest.RuleNode prefix(Rule rule, int dot, int start, int end) {
+            long key = ((rule.id * (long) (maxRhs + 1) + dot) * width + start) * width + end;
+            ParseForest.RuleNode node = prefixes.get(key);
+            if (node != null) return node;
+            node = new ParseForest.RuleNode(rule, dot, start, end);
+            prefixes.put(key, node);
+            if (dot == 0) return node;
+            int last = rule.rhs[dot - 1];
+            for (int m = start; m <= end; m++) {
+                boolean prefixOk = dot == 1 ? m == start : chart[m].contains(rule, dot - 1, start);
+                if (prefixOk && derives(chart, tokens, last, m, end)) {
+                    ParseForest.RuleNode left = dot == 1 ? null : prefix(rule, dot - 1, start, m);
+                    node.families.add(new ParseForest.Family(left, symbol(last, m, end)));
+                }
+            }
+            return node;
+        }
+    }
+
+    // 返回所有推导组成的共享森林, 不合法的句子返回空森林
+    public ParseForest parseForest(List<String> s) {
+        Tokens tokens = grammar.tokenize(s);
+        ItemSet[] chart = recognize(tokens);
+        if (!derives(chart, tokens, start, 0, tokens.length)) return new ParseForest(null, 0, 0);
+        ForestBuilder builder = new ForestBuilder(chart, tokens);
+        ParseForest.SymbolNode root = builder.symbol(start, 0, tokens.length);
+        return new ParseForest(root, builder.symbols.size(), builder.prefixes.size());
+    }
+
+    private void test(List<String> s) {
+        MultiTopDownParser.Comp c = parseEntry(s);
+        System.out.println(c.pretty());
+        c.visualize();
+    }
+
+    public static void main(String[] args) {
+        String s = "The ugly cat receive a beautiful pen".toLowerCase();
+        EarleyParser ep = new EarleyParser(new MultiTopDownParser());
+        ep.test(Arrays.asList(s.split(" ")));
+    }
+}
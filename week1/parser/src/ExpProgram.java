@@ -0,0 +1,231 @@
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+
+/*
+* 把 ArithmeticParser 的 Exp 编译成后缀形式的 int[] 程序, 反复求值时不用再遍历对象树
+* 指令:
+*   PUSH v   压入常数 v (占两个 int)
+*   ADD      弹出两个数, 压入和
+*   MUL      弹出两个数, 压入积
+*   SUB, DIV 同上, 先压入的是被减数 / 被除数
+* e.g. 1+(2*3) -> PUSH 1 PUSH 2 PUSH 3 MUL ADD (不折叠), 折叠以后是 PUSH 7
+*
+* 常量折叠: 两个操作数都是常数的运算在编译时就算掉, Parenthesis 不生成任何指令
+* 除数是 0 的不折叠, 留到运行时抛 ArithmeticException, 和 Exp.evaluate() 一样
+* 目前的语法里只有数字, 所以折叠以后只剩除以 0 的部分; compile(e, false) 得到不折叠的程序
+* */
+public class ExpProgram {
+    static final int PUSH = 0;
+    static final int ADD = 1;
+    static final int MUL = 2;
+    static final int SUB = 3;
+    static final int DIV = 4;
+
+    final int[] code;
+    // 求值时栈的最大深度, run 需要的栈至少这么大
+    final int maxStack;
+
+    private ExpProgram(int[] code) {
+        this.code = code;
+        this.maxStack = maxStack(code);
+    }
+
+    static ExpProgram compile(ArithmeticParser.Exp e) {
+        return compile(e, true);
+    }
+
+    /*
+    * 用显式的栈做后序遍历, 很长的表达式 (Plus 一直向左嵌套) 也不会 StackOverflowError
+    * operands 记录已经编译好的操作数: 代码从哪里开始, 是不是常数, 常数的值
+    * 遇到运算符时如果两个操作数都是常数, 就把它们的代码删掉, 换成一条 PUSH 结果
+    * */
+    static ExpProgram compile(ArithmeticParser.Exp e, boolean fold) {
+        Deque<Object> todo = new ArrayDeque<>();
+        todo.push(e);
+        Builder b = new Builder();
+        while (!todo.isEmpty()) {
+            Object x = todo.pop();
+            if (x instanceof Integer) {
+                b.operator((Integer) x, fold);
+            } else if (x instanceof ArithmeticParser.Num) {
+                b.push(((ArithmeticParser.Num) x).value);
+            } else if (x instanceof ArithmeticParser.Parenthesis) {
+                todo.push(((ArithmeticParser.Parenthesis) x).e);
+            } else if (x instanceof ArithmeticParser.Plus) {
+                binary(todo, ADD, ((ArithmeticParser.Plus) x).e);
+            } else if (x instanceof ArithmeticParser.Minus) {
+                binary(todo, SUB, ((ArithmeticParser.Minus) x).e);
+            } else if (x instanceof ArithmeticParser.Mult) {
+                binary(todo, MUL, ((ArithmeticParser.Mult) x).e);
+            } else {
+                binary(todo, DIV, ((ArithmeticParser.Div) x).e);
+            }
+        }
+        return new ExpProgram(Arrays.copyOf(b.code, b.size));
+    }
+
+    // 先编译左边, 再编译右边, 最后是运算符
+    private static void binary(Deque<Object> todo, int op, ArithmeticParser.Exp[] children) {
+        todo.push(op);
+        todo.push(children[1]);
+        todo.push(children[0]);
+    }
+
+    private static class Builder {
+        int[] code = new int[16];
+        int size;
+        // 已编译的操作数
+        int[] starts = new int[16];
+        boolean[] constants = new boolean[16];
+        int[] values = new int[16];
+        int operands;
+
+        void emit(int x) {
+            if (size == code.length) code = Arrays.copyOf(code, size * 2);
+            code[size++] = x;
+        }
+
+        void operand(int start, boolean constant, int value) {
+            if (operands == starts.length) {
+                starts = Arrays.copyOf(starts, operands * 2);
+                constants = Arrays.copyOf(constants, operands * 2);
+                values = Arrays.copyOf(values, operands * 2);
+            }
+            starts[operands] = start;
+            constants[operands] = constant;
+            values[operands] = value;
+            operands++;
+        }
+
+        void push(int value) {
+            int start = size;
+            emit(PUSH);
+            emit(value);
+            operand(start, true, value);
+        }
+
+        void operator(int op, boolean fold) {
+            int right = --operands;
+            int left = --operands;
+            int start = starts[left];
+            if (fold && constants[left] && constants[right] && !(op == DIV && values[right] == 0)) {
+                int value = apply(op, values[left], values[right]);
+                size = start;
+                emit(PUSH);
+                emit(value);
+                operand(start, true, value);
+            } else {
+                emit(op);
+                operand(start, false, 0);
+            }
+        }
+    }
+
+    private static int apply(int op, int a, int b) {
+        switch (op) {
+            case ADD:
+                return a + b;
+            case SUB:
+                return a - b;
+            case MUL:
+                return a * b;
+            default:
+                return a / b;
+        }
+    }
+
+    private static int maxStack(int[] code) {
+        int depth = 0;
+        int max = 0;
+        for (int pc = 0; pc < code.length;) {
+            if (code[pc] == PUSH) {
+                depth++;
+                pc += 2;
+            } else {
+                depth--;
+                pc++;
+            }
+            max = Math.max(max, depth);
+        }
+        return max;
+    }
+
+    int[] newStack() {
+        return new int[Math.max(1, maxStack)];
+    }
+
+    // stack 由调用方提供 (newStack()), 可以反复使用, 求值过程不分配对象
+    int run(int[] stack) {
+        int[] c = this.code;
+        int sp = 0;
+        int pc = 0;
+        while (pc < c.length) {
+            switch (c[pc++]) {
+                case PUSH:
+                    stack[sp++] = c[pc++];
+                    break;
+                case ADD:
+                    sp--;
+                    stack[sp - 1] += stack[sp];
+                    break;
+                case MUL:
+                    sp--;
+                    stack[sp - 1] *= stack[sp];
+                    break;
+                case SUB:
+                    sp--;
+                    stack[sp - 1] -= stack[sp];
+                    break;
+                case DIV:
+                    sp--;
+                    stack[sp - 1] /= stack[sp];
+                    break;
+                default:
+                    throw new IllegalStateException("bad opcode at " + (pc - 1));
+            }
+        }
+        return stack[0];
+    }
+
+    int run() {
+        return run(newStack());
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder s = new StringBuilder();
+        for (int pc = 0; pc < code.length;) {
+            if (s.length() > 0) s.append(' ');
+            switch (code[pc++]) {
+                case PUSH:
+                    s.append("PUSH ").append(code[pc++]);
+                    break;
+                case ADD:
+                    s.append("ADD");
+                    break;
+                case SUB:
+                    s.append("SUB");
+                    break;
+                case MUL:
+                    s.append("MUL");
+                    break;
+                default:
+                    s.append("DIV");
+            }
+        }
+        return s.toString();
+    }
+
+    public static void main(String[] args) {
+        String s = args.length > 0 ? args[0] : "1+(2*1+1)+1";
+        ArithmeticParser ap = new ArithmeticParser();
+        ArithmeticParser.Exp e = ap.parse(s);
+        ExpProgram program = compile(e, false);
+        ExpProgram folded = compile(e);
+        System.out.println(e.pretty() + " = " + e.evaluate());
+        System.out.println(program + " = " + program.run());
+        System.out.println(folded + " = " + folded.run());
+
+    }
+}
@@ -0,0 +1,545 @@
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+
+/*
+* 从文件读取的上下文无关文法, 原来每个 parser 的规则都写死在构造函数里
+* 文本格式, 每行是一个左部和若干条规则:
+*   # 注释
+*   S -> NP VP
+*   NP -> ART N | ART ADJ N [0.4]
+*   X -> ε
+* - 第一条规则的左部是开始符号; 在左部出现过的是非终结符, 其余都是原子元素 (词典里的词性)
+* - 同一个左部可以分几行写, 规则按出现的顺序排; ε 表示空规则
+* - 方括号里是这条规则的概率, 存成 log 概率 (weights); 没写的按这个左部的规则数均匀分配
+* - 符号编号成连续的 int: 原子元素在前 (0 .. terminals - 1), 非终结符在后, 各自按第一次出现的顺序
+*   非终结符可以有任意多个; 原子元素 (词性) 的编号小于 64, 单词的词性位图 (1L << 编号) 和 FIRST 集都放得下
+* - 规则编译成 CompiledGrammar, parser 直接用它 (加上 names 和 start), 不经过任何 Type
+*
+* 加载时检查以下问题, 记在 problems 里, 由调用方决定要不要接受:
+*   unreachable      从开始符号推不到的符号
+*   unproductive     推不出任何句子的非终结符
+*   left recursion   A => ... => A ...: 自顶向下的 genericParse 会无限递归, 所以 MultiTopDownParser.load 等会拒绝
+*                    每个环报一条实际的路径, e.g. left recursion: S -> A -> S
+*
+* 二进制缓存: load(path) 把分析结果 (包括 CompiledGrammar 的 nullable / FIRST 表) 写到缓存目录 (-Dgrammar.cache, 默认是临时目录下的 grammar-cache) 里,
+* 之后源文件没改过 (路径, 长度和修改时间都一样) 就直接读它, 不再分析文本, 也不再做上面的检查
+* 缓存不写在文法文件旁边, 源代码目录里不会多出文件
+* */
+public class Grammar {
+    static final int MAGIC = 0x43464733; // "CFG3"
+    static final String EPSILON = "ε";
+
+    final String[] names;
+    final int start;
+    // 原子元素的个数, 它们的编号是 0 .. terminals - 1
+    final int terminals;
+    final CompiledGrammar compiled;
+    // 每条规则的 log 概率, 顺序和 compiled 一样
+    final double[] weights;
+    final List<String> problems;
+    final boolean leftRecursive;
+
+    private Grammar(String[] names, int start, CompiledGrammar compiled, double[] weights,
+                    List<String> problems, boolean leftRecursive) {
+        this.names = names;
+        this.start = start;
+        this.compiled = compiled;
+        this.weights = weights;
+        this.problems = problems;
+        this.leftRecursive = leftRecursive;
+        int terminals = 0;
+        while (terminals < names.length && !compiled.isNonterminal(terminals)) terminals++;
+        this.terminals = terminals;
+    }
+
+    static Grammar load(Path path) throws IOException {
+        String property = System.getProperty("grammar.cache");
+        Path directory = property != null ? Paths.get(property)
+                : Paths.get(System.getProperty("java.io.tmpdir"), "grammar-cache");
+        return load(path, directory);
+    }
+
+    // 先看缓存, 缓存不存在或者过期了才分析文本, 然后写缓存 (写不了就算了)
+    static Grammar load(Path path, Path cacheDirectory) throws IOException {
+        String source = path.toAbsolutePath().normalize().toString();
+        Path cache = cachePath(path, cacheDirectory);
+        long length = Files.size(path);
+        long modified = Files.getLastModifiedTime(path).toMillis();
+        if (Files.exists(cache)) {
+            Grammar cached = readCache(cache, source, length, modified);
+            if (cached != null) return cached;
+        }
+        Grammar grammar;
+        try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            grammar = parse(path.toString(), reader);
+        }
+        try {
+            Files.createDirectories(cacheDirectory);
+            Path tmp = Files.createTempFile(cacheDirectory, cache.getFileName().toString(), ".tmp");
+            try {
+                writeCache(grammar, tmp, source, length, modified);
+                Files.move(tmp, cache, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(tmp);
+            }
+        } catch (IOException e) {
+            // 缓存只是为了快, 目录不可写时每次都分析文本
+        }
+        return grammar;
+    }
+
+    // 缓存文件名: 文件名加上绝对路径的 hash, 不同目录下的同名文法不会互相覆盖; 缓存里还存了完整路径, 读的时候核对
+    static Path cachePath(Path path, Path cacheDirectory) {
+        String source = path.toAbsolutePath().normalize().toString();
+        return cacheDirectory.resolve(path.getFileName() + "-" + Integer.toHexString(source.hashCode()) + ".bin");
+    }
+
+    static Grammar parse(String text) {
+        try {
+            return parse("<string>", new BufferedReader(new StringReader(text)));
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage(), e);
+        }
+    }
+
+    static Grammar parse(String source, BufferedReader reader) throws IOException {
+        Map<String, Integer> ids = new HashMap<>();
+        List<String> names = new ArrayList<>();
+        // 每个符号的规则, 以及规则的概率 (NaN 表示没写)
+        List<List<int[]>> rules = new ArrayList<>();
+        List<List<Double>> probabilities = new ArrayList<>();
+        String line;
+        int lineNumber = 0;
+        while ((line = reader.readLine()) != null) {
+            lineNumber++;
+            int comment = line.indexOf('#');
+            if (comment >= 0) line = line.substring(0, comment);
+            line = line.trim();
+            if (line.isEmpty()) continue;
+            int arrow = line.indexOf("->");
+            String lhs = arrow < 0 ? "" : line.substring(0, arrow).trim();
+            if (lhs.isEmpty() || lhs.split("\\s+").length != 1) {
+                throw new IOException(source + ":" + lineNumber + ": expected SYMBOL -> ...");
+            }
+            int a = intern(lhs, ids, names, rules, probabilities);
+            for (String alternative: line.substring(arrow + 2).split("\\|", -1)) {
+                alternative = alternative.trim();
+                double probability = Double.NaN;
+                if (alternative.endsWith("]")) {
+                    int open = alternative.lastIndexOf('[');
+                    if (open < 0) throw new IOException(source + ":" + lineNumber + ": unmatched ]");
+                    try {
+                        probability = Double.parseDouble(alternative.substring(open + 1, alternative.length() - 1).trim());
+                    } catch (NumberFormatException e) {
+                        throw new IOException(source + ":" + lineNumber + ": bad probability in " + alternative);
+                    }
+                    if (!(probability > 0 && probability <= 1)) {
+                        throw new IOException(source + ":" + lineNumber + ": probability must be in (0, 1]: " + probability);
+                    }
+                    alternative = alternative.substring(0, open).trim();
+                }
+                if (alternative.isEmpty()) throw new IOException(source + ":" + lineNumber + ": empty alternative, use " + EPSILON);
+                String[] symbols = alternative.split("\\s+");
+                int[] rhs;
+                if (symbols.length == 1 && symbols[0].equals(EPSILON)) {
+                    rhs = new int[0];
+                } else {
+                    rhs = new int[symbols.length];
+                    for (int i = 0; i < symbols.length; i++) {
+                        if (symbols[i].equals(EPSILON)) throw new IOException(source + ":" + lineNumber + ": " + EPSILON + " must be alone");
+                        rhs[i] = intern(symbols[i], ids, names, rules, probabilities);
+                    }
+                }
+                rules.get(a).add(rhs);
+                probabilities.get(a).add(probability);
+            }
+        }
+        if (names.isEmpty()) throw new IOException(source + ": no rules");
+        return build(names.toArray(new String[0]), rules, probabilities);
+    }
+
+    private static int intern(String name, Map<String, Integer> ids, List<String> names,
+                              List<List<int[]>> rules, List<List<Double>> probabilities) {
+        Integer id = ids.get(name);
+        if (id != null) return id;
+        ids.put(name, names.size());
+        names.add(name);
+        rules.add(new ArrayList<>());
+        probabilities.add(new ArrayList<>());
+        return names.size() - 1;
+    }
+
+    /*
+    * names / rules 是按第一次出现的顺序编号的, 这里重新编号: 原子元素在前, 非终结符在后
+    * 开始符号是第一条规则的左部, 原来的编号是 0
+    * */
+    private static Grammar build(String[] appearance, List<List<int[]>> appearanceRules,
+                                 List<List<Double>> appearanceProbabilities) {
+        int symbolCount = appearance.length;
+        int[] id = new int[symbolCount];
+        int next = 0;
+        for (int pass = 0; pass < 2; pass++) {
+            for (int s = 0; s < symbolCount; s++) {
+                if (appearanceRules.get(s).isEmpty() == (pass == 0)) id[s] = next++;
+            }
+        }
+        String[] names = new String[symbolCount];
+        List<List<int[]>> rules = new ArrayList<>(Collections.nCopies(symbolCount, (List<int[]>) null));
+        List<List<Double>> probabilities = new ArrayList<>(Collections.nCopies(symbolCount, (List<Double>) null));
+        for (int s = 0; s < symbolCount; s++) {
+            names[id[s]] = appearance[s];
+            List<int[]> alternatives = new ArrayList<>();
+            for (int[] alternative: appearanceRules.get(s)) {
+                int[] renumbered = new int[alternative.length];
+                for (int i = 0; i < alternative.length; i++) renumbered[i] = id[alternative[i]];
+                alternatives.add(renumbered);
+            }
+            rules.set(id[s], alternatives);
+            probabilities.set(id[s], appearanceProbabilities.get(s));
+        }
+
+        int ruleCount = 0;
+        int rhsCount = 0;
+        for (List<int[]> alternatives: rules) {
+            ruleCount += alternatives.size();
+            for (int[] alternative: alternatives) rhsCount += alternative.length;
+        }
+        int[] ruleStart = new int[symbolCount + 1];
+        int[] rhsStart = new int[ruleCount + 1];
+        int[] rhs = new int[rhsCount];
+        double[] weights = new double[ruleCount];
+        int r = 0;
+        int k = 0;
+        for (int a = 0; a < symbolCount; a++) {
+            ruleStart[a] = r;
+            List<int[]> alternatives = rules.get(a);
+            for (int i = 0; i < alternatives.size(); i++) {
+                double p = probabilities.get(a).get(i);
+                weights[r] = Math.log(Double.isNaN(p) ? 1.0 / alternatives.size() : p);
+                rhsStart[r++] = k;
+                for (int symbol: alternatives.get(i)) rhs[k++] = symbol;
+            }
+        }
+        ruleStart[symbolCount] = r;
+        rhsStart[ruleCount] = k;
+        CompiledGrammar compiled = CompiledGrammar.of(symbolCount, ruleStart, rhsStart, rhs);
+
+        int start = id[0];
+        List<String> problems = new ArrayList<>();
+        boolean leftRecursive = check(names, start, compiled, problems);
+        return new Grammar(names, start, compiled, weights, problems, leftRecursive);
+    }
+
+    /*
+    * 检查 unreachable, unproductive 和左递归, 返回有没有左递归
+    * 都是线性时间的: 几千条规则也只要几毫秒
+    * */
+    private static boolean check(String[] names, int start, CompiledGrammar g, List<String> problems) {
+        int n = g.symbolCount;
+        int ruleCount = g.ruleCount();
+        int[] lhs = new int[ruleCount];
+        for (int a = 0; a < n; a++) {
+            for (int r = g.ruleStart[a]; r < g.ruleStart[a + 1]; r++) lhs[r] = a;
+        }
+
+        // 从开始符号出发能走到的符号
+        boolean[] reachable = new boolean[n];
+        int[] queue = new int[n];
+        int head = 0;
+        int tail = 0;
+        reachable[start] = true;
+        queue[tail++] = start;
+        while (head < tail) {
+            int a = queue[head++];
+            for (int i = g.rhsStart[g.ruleStart[a]]; i < g.rhsStart[g.ruleStart[a + 1]]; i++) {
+                if (!reachable[g.rhs[i]]) {
+                    reachable[g.rhs[i]] = true;
+                    queue[tail++] = g.rhs[i];
+                }
+            }
+        }
+
+        // 右部里每个符号出现在哪些规则里, productive / nullable 都是数 "规则里还有几个符号没确定"
+        int[] occurrenceStart = new int[n + 1];
+        for (int symbol: g.rhs) occurrenceStart[symbol + 1]++;
+        for (int s = 0; s < n; s++) occurrenceStart[s + 1] += occurrenceStart[s];
+        int[] occurrences = new int[g.rhs.length];
+        int[] fill = Arrays.copyOf(occurrenceStart, n);
+        for (int r = 0; r < ruleCount; r++) {
+            for (int i = g.rhsStart[r]; i < g.rhsStart[r + 1]; i++) occurrences[fill[g.rhs[i]]++] = r;
+        }
+        boolean[] productive = closure(g, lhs, occurrenceStart, occurrences, true);
+        boolean[] nullable = closure(g, lhs, occurrenceStart, occurrences, false);
+
+        for (int s = 0; s < n; s++) {
+            if (!reachable[s]) problems.add("unreachable symbol: " + names[s]);
+        }
+        for (int s = 0; s < n; s++) {
+            if (!productive[s]) problems.add("unproductive symbol: " + names[s]);
+        }
+
+        // A -> X1 X2 ...: X1 是 A 的左角, X1 能推出空串时 X2 也是, 以此类推; 左角关系有环就是左递归
+        int[] edgeStart = new int[n + 1];
+        List<Integer> edges = new ArrayList<>();
+        for (int a = 0; a < n; a++) {
+            edgeStart[a] = edges.size();
+            for (int r = g.ruleStart[a]; r < g.ruleStart[a + 1]; r++) {
+                for (int i = g.rhsStart[r]; i < g.rhsStart[r + 1]; i++) {
+                    if (g.isNonterminal(g.rhs[i])) edges.add(g.rhs[i]);
+                    if (!nullable[g.rhs[i]]) break;
+                }
+            }
+        }
+        edgeStart[n] = edges.size();
+        boolean leftRecursive = false;
+        for (List<Integer> cycle: cycles(n, edgeStart, edges)) {
+            leftRecursive = true;
+            StringBuilder s = new StringBuilder("left recursion: ");
+            for (int symbol: cycle) s.append(names[symbol]).append(" -> ");
+            s.append(names[cycle.get(0)]);
+            problems.add(s.toString());
+        }
+        return leftRecursive;
+    }
+
+    /*
+    * productive: 原子元素一开始就是, 一条规则的右部全是 productive 的, 左部就是
+    * nullable: 一开始只有空规则, 一条规则的右部全是 nullable 的, 左部就是
+    * */
+    private static boolean[] closure(CompiledGrammar g, int[] lhs, int[] occurrenceStart, int[] occurrences,
+                                     boolean terminals) {
+        int n = g.symbolCount;
+        boolean[] result = new boolean[n];
+        int[] missing = new int[lhs.length];
+        int[] queue = new int[n];
+        int tail = 0;
+        for (int s = 0; s < n; s++) {
+            if (terminals && !g.isNonterminal(s)) {
+                result[s] = true;
+                queue[tail++] = s;
+            }
+        }
+        for (int r = 0; r < lhs.length; r++) {
+            missing[r] = g.rhsStart[r + 1] - g.rhsStart[r];
+            if (missing[r] == 0 && !result[lhs[r]]) {
+                result[lhs[r]] = true;
+                queue[tail++] = lhs[r];
+            }
+        }
+        for (int head = 0; head < tail; head++) {
+            int s = queue[head];
+            for (int i = occurrenceStart[s]; i < occurrenceStart[s + 1]; i++) {
+                int r = occurrences[i];
+                if (--missing[r] == 0 && !result[lhs[r]]) {
+                    result[lhs[r]] = true;
+                    queue[tail++] = lhs[r];
+                }
+            }
+        }
+        return result;
+    }
+
+    /*
+    * Tarjan 强连通分量 (用显式的栈, 不递归), 每个有环的分量 (多于一个点, 或者有自环的点) 返回一个环
+    * 分量里的点不一定连成一条路径, 所以从分量的根出发在分量里 BFS, 找回到根的最短路径: [根, ..., 指回根的点]
+    * */
+    private static List<List<Integer>> cycles(int n, int[] edgeStart, List<Integer> edges) {
+        int[] index = new int[n];
+        int[] low = new int[n];
+        boolean[] onStack = new boolean[n];
+        Arrays.fill(index, -1);
+        int[] stack = new int[n];
+        int top = 0;
+        int[] callStack = new int[n];
+        int[] nextEdge = new int[n];
+        int counter = 0;
+        int[] component = new int[n];
+        int[] parent = new int[n];
+        List<List<Integer>> result = new ArrayList<>();
+        for (int root = 0; root < n; root++) {
+            if (index[root] >= 0) continue;
+            int depth = 0;
+            callStack[depth++] = root;
+            index[root] = low[root] = counter++;
+            nextEdge[root] = edgeStart[root];
+            stack[top++] = root;
+            onStack[root] = true;
+            while (depth > 0) {
+                int v = callStack[depth - 1];
+                if (nextEdge[v] < edgeStart[v + 1]) {
+                    int w = edges.get(nextEdge[v]++);
+                    if (index[w] < 0) {
+                        index[w] = low[w] = counter++;
+                        nextEdge[w] = edgeStart[w];
+                        stack[top++] = w;
+                        onStack[w] = true;
+                        callStack[depth++] = w;
+                    } else if (onStack[w]) {
+                        low[v] = Math.min(low[v], index[w]);
+                    }
+                    continue;
+                }
+                depth--;
+                if (depth > 0) low[callStack[depth - 1]] = Math.min(low[callStack[depth - 1]], low[v]);
+                if (low[v] != index[v]) continue;
+                // component[w] == v + 1: w 在以 v 为根的分量里
+                int w;
+                do {
+                    w = stack[--top];
+                    onStack[w] = false;
+                    component[w] = v + 1;
+                } while (w != v);
+                List<Integer> cycle = cycle(v, edgeStart, edges, component, parent);
+                if (cycle != null) result.add(cycle);
+            }
+        }
+        return result;
+    }
+
+    // 分量里从 root 出发回到 root 的最短路径, 没有环 (单独一个点, 没有自环) 时返回 null
+    private static List<Integer> cycle(int root, int[] edgeStart, List<Integer> edges, int[] component, int[] parent) {
+        List<Integer> queue = new ArrayList<>();
+        queue.add(root);
+        parent[root] = -1;
+        for (int head = 0; head < queue.size(); head++) {
+            int u = queue.get(head);
+            for (int e = edgeStart[u]; e < edgeStart[u + 1]; e++) {
+                int w = edges.get(e);
+                if (w == root) {
+                    List<Integer> cycle = new ArrayList<>();
+                    for (int x = u; x != -1; x = parent[x]) cycle.add(x);
+                    Collections.reverse(cycle);
+                    return cycle;
+                }
+                // 不在分量里, 或者已经访问过 (访问过的改成 0)
+                if (component[w] != root + 1) continue;
+                component[w] = 0;
+                parent[w] = u;
+                queue.add(w);
+            }
+        }
+        return null;
+    }
+
+    private static void writeCache(Grammar grammar, Path cache, String source, long length, long modified)
+            throws IOException {
+        CompiledGrammar g = grammar.compiled;
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(cache)))) {
+            out.writeInt(MAGIC);
+            out.writeUTF(source);
+            out.writeLong(length);
+            out.writeLong(modified);
+            out.writeInt(grammar.names.length);
+            for (String name: grammar.names) out.writeUTF(name);
+            out.writeInt(grammar.start);
+            out.writeInt(g.ruleCount());
+            out.writeInt(g.rhs.length);
+            for (int x: g.ruleStart) out.writeInt(x);
+            for (int x: g.rhsStart) out.writeInt(x);
+            for (int x: g.rhs) out.writeInt(x);
+            for (double w: grammar.weights) out.writeDouble(w);
+            for (long x: g.nullable) out.writeLong(x);
+            for (long x: g.first) out.writeLong(x);
+            out.writeBoolean(grammar.leftRecursive);
+            out.writeInt(grammar.problems.size());
+            for (String problem: grammar.problems) out.writeUTF(problem);
+        }
+    }
+
+    // 缓存和源文件对不上 (或者格式不对) 时返回 null, 重新分析文本
+    private static Grammar readCache(Path cache, String source, long length, long modified) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(Files.readAllBytes(cache)));
+        try {
+            if (in.readInt() != MAGIC || !in.readUTF().equals(source)
+                    || in.readLong() != length || in.readLong() != modified) return null;
+            String[] names = new String[in.readInt()];
+            for (int i = 0; i < names.length; i++) names[i] = in.readUTF();
+            int start = in.readInt();
+            int[] ruleStart = new int[names.length + 1];
+            int[] rhsStart = new int[in.readInt() + 1];
+            int[] rhs = new int[in.readInt()];
+            for (int i = 0; i < ruleStart.length; i++) ruleStart[i] = in.readInt();
+            for (int i = 0; i < rhsStart.length; i++) rhsStart[i] = in.readInt();
+            for (int i = 0; i < rhs.length; i++) rhs[i] = in.readInt();
+            double[] weights = new double[rhsStart.length - 1];
+            for (int i = 0; i < weights.length; i++) weights[i] = in.readDouble();
+            long[] nullable = new long[(names.length + 63) / 64];
+            for (int i = 0; i < nullable.length; i++) nullable[i] = in.readLong();
+            long[] first = new long[names.length];
+            for (int i = 0; i < first.length; i++) first[i] = in.readLong();
+            boolean leftRecursive = in.readBoolean();
+            List<String> problems = new ArrayList<>();
+            for (int i = in.readInt(); i > 0; i--) problems.add(in.readUTF());
+            CompiledGrammar compiled = CompiledGrammar.of(names.length, ruleStart, rhsStart, rhs, nullable, first);
+            return new Grammar(names, start, compiled, weights, problems, leftRecursive);
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    // 给自顶向下的 parser 用的时候: 不能有左递归 (会无限递归); 开始符号用 start, 叫什么都可以
+    void requireTopDown() {
+        if (leftRecursive) throw new IllegalArgumentException("left-recursive grammar: " + problems);
+    }
+
+    /*
+    * 词性位 -> 本文法的原子元素位图 (1L << 编号), 和 Lexicon.tagMasks(Type.class) 一样, 给 Tokens.lex 用
+    * 原子元素排在前面, 编号都小于 64 (见 endOfSentence); 文法里没有的词性对应 0, 相当于不认识这个词
+    * */
+    long[] tagMasks(Lexicon lexicon) {
+        List<String> tags = lexicon.tags();
+        long[] table = new long[tags.size()];
+        for (int s = 0; s < terminals && s < 64; s++) {
+            int bit = tags.indexOf(names[s]);
+            if (bit >= 0) table[bit] = 1L << s;
+        }
+        return table;
+    }
+
+    /*
+    * 句子结束用哪一位表示 (相当于内置文法的 Type.EOS): 编号 terminals, 那是一个非终结符, 不会出现在单词的词性里
+    * 原子元素太多 (64 个以上), 位图放不下时抛 IllegalArgumentException
+    * */
+    int endOfSentence() {
+        if (terminals >= 64) throw new IllegalArgumentException(terminals + " atomic symbols, at most 63");
+        return terminals;
+    }
+
+    public static void main(String[] args) throws IOException {
+        Path path = Paths.get(args.length > 0 ? args[0] : "input/grammar.txt");
+        Grammar grammar = load(path);
+        System.out.println(path + ": " + grammar.names.length + " symbols, " + grammar.compiled.ruleCount()
+                + " rules, start " + grammar.names[grammar.start] + ", problems " + grammar.problems);
+        MultiTopDownParser parser = new MultiTopDownParser();
+        parser.load(grammar);
+        List<String> s = Arrays.asList("the ugly cat receive a beautiful pen".split(" "));
+        System.out.println(parser.parseEntry(s).pretty());
+
+        Grammar bad = parse("S -> NP VP\nNP -> NP PP | ART N\nVP -> V NP | X\nX -> X V\nPP -> P NP\nY -> N");
+        System.out.println("problems: " + bad.problems);
+
+        // 几千条规则的文法: 第一次分析文本并写缓存, 第二次读缓存
+        Path big = Files.createTempFile("grammar", ".txt");
+        Files.write(big, BenchmarkInputs.grammarText(5000).getBytes(StandardCharsets.UTF_8));
+        Path cacheDirectory = Files.createTempDirectory("grammar-cache");
+        Path cache = cachePath(big, cacheDirectory);
+        Grammar text = load(big, cacheDirectory);
+        Grammar cached = load(big, cacheDirectory);
+        System.out.println(text.compiled.ruleCount() + " rules, cache " + Files.size(cache) + " bytes, same rules "
+                + Arrays.equals(text.compiled.rhs, cached.compiled.rhs));
+        Files.deleteIfExists(cache);
+        Files.deleteIfExists(cacheDirectory);
+        Files.deleteIfExists(big);
+    }
+}
@@ -0,0 +1,63 @@
+import java.util.*;
+
+/*
+* 内存中的词典: 开放寻址 (线性探测) 的 hash 表
+* keys[slot] 为 null 表示空位, 装载因子不超过 0.5
+* */
+public class HashLexicon extends Lexicon {
+    private final List<String> tags;
+    final String[] keys;
+    final long[] masks;
+    private final int mask;
+    private final int size;
+
+    private HashLexicon(List<String> tags, String[] keys, long[] masks, int size) {
+        this.tags = tags;
+        this.keys = keys;
+        this.masks = masks;
+        this.mask = keys.length - 1;
+        this.size = size;
+    }
+
+    static HashLexicon build(List<String> tags, Map<String, Long> entries) {
+        int capacity = Integer.highestOneBit(Math.max(2, entries.size() * 2) - 1) << 1;
+        String[] keys = new String[capacity];
+        long[] masks = new long[capacity];
+        for (Map.Entry<String, Long> entry: entries.entrySet()) {
+            int slot = hash(entry.getKey()) & (capacity - 1);
+            while (keys[slot] != null) slot = (slot + 1) & (capacity - 1);
+            keys[slot] = entry.getKey();
+            masks[slot] = entry.getValue();
+        }
+        return new HashLexicon(Collections.unmodifiableList(new ArrayList<>(tags)), keys, masks, entries.size());
+    }
+
+    private static boolean equals(String key, CharSequence word) {
+        if (key.length() != word.length()) return false;
+        for (int i = 0; i < key.length(); i++) {
+            if (key.charAt(i) != word.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    @Override
+    long lookup(CharSequence word) {
+        int slot = hash(word) & mask;
+        String key;
+        while ((key = keys[slot]) != null) {
+            if (equals(key, word)) return masks[slot];
+            slot = (slot + 1) & mask;
+        }
+        return 0;
+    }
+
+    @Override
+    List<String> tags() {
+        return tags;
+    }
+
+    @Override
+    int size() {
+        return size;
+    }
+}
@@ -0,0 +1,85 @@
+import java.io.IOException;
+
+/*
+* HdrHistogram 风格的延迟直方图: 按 2 的幂分段, 每段再均分成 SUB_BUCKETS 个桶
+* 相对误差不超过 1 / SUB_BUCKETS (约 3%), 从 1 ns 到 Long.MAX_VALUE 总共不到 2000 个桶
+* record 只是算下标再加一, 不分配对象
+* */
+public class LatencyHistogram {
+    private static final int SUB_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+
+    private final long[] counts = new long[(64 - SUB_BITS + 1) * SUB_BUCKETS];
+    long total;
+    long max;
+    long sum;
+
+    static int index(long value) {
+        int magnitude = 63 - Long.numberOfLeadingZeros(value);
+        if (magnitude < SUB_BITS) return (int) value;
+        int shift = magnitude - SUB_BITS;
+        return ((shift + 1) << SUB_BITS) + (int) ((value >>> shift) - SUB_BUCKETS);
+    }
+
+    // 下标为 index 的桶里最小的值
+    static long lowest(int index) {
+        if (index < SUB_BUCKETS) return index;
+        int shift = (index >> SUB_BITS) - 1;
+        return (long) ((index & (SUB_BUCKETS - 1)) + SUB_BUCKETS) << shift;
+    }
+
+    // 下标为 index 的桶里最大的值
+    static long highest(int index) {
+        if (index < SUB_BUCKETS) return index;
+        int shift = (index >> SUB_BITS) - 1;
+        return lowest(index) + (1L << shift) - 1;
+    }
+
+    void record(long value) {
+        if (value < 0) value = 0;
+        counts[index(value)]++;
+        total++;
+        sum += value;
+        if (value > max) max = value;
+    }
+
+    void add(LatencyHistogram other) {
+        for (int i = 0; i < counts.length; i++) counts[i] += other.counts[i];
+        total += other.total;
+        sum += other.sum;
+        if (other.max > max) max = other.max;
+    }
+
+    // p 在 [0, 1] 之间, 返回所在桶的上界 (和 HdrHistogram 一样, 报告的值不会比真实值小)
+    long percentile(double p) {
+        if (total == 0) return 0;
+        long rank = Math.max(1, (long) Math.ceil(p * total));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) return Math.min(highest(i), max);
+        }
+        return max;
+    }
+
+    double mean() {
+        return total == 0 ? 0 : (double) sum / total;
+    }
+
+    /*
+    * 按 HdrHistogram outputPercentileDistribution 的格式输出:
+    *   Value  Percentile  TotalCount  1/(1-Percentile)
+    * 百分位取 0, 50, 75, 87.5, ... 每次把剩下的一半再分一半
+    * */
+    void export(Appendable out) throws IOException {
+        out.append(String.format("%12s %14s %10s %14s%n", "Value", "Percentile", "TotalCount", "1/(1-Percentile)"));
+        double p = 0;
+        for (int step = 0; step < 20 && total > 0; step++) {
+            long rank = Math.max(1, (long) Math.ceil(p * total));
+            out.append(String.format("%12d %14.12f %10d %14.2f%n", percentile(p), p, rank, 1 / (1 - p)));
+            if (rank >= total) break;
+            p += (1 - p) / 2;
+        }
+        out.append(String.format("#[Mean = %.1f, Max = %d, Total count = %d]%n", mean(), max, total));
+    }
+}
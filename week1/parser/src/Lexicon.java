@@ -0,0 +1,153 @@
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+
+/*
+* 词典: 单词 -> 词性
+* 原来每个 parser 的 scan 里都有一份写死的 switch, 加词要重新编译, 而且几份已经不一致了
+* 现在统一从文件读取, 有两种格式
+* - 文本: 格式和 week1/input/dic_ce.txt 类似, 每行逗号分隔: 单词,词性[,词性...], # 开头的行是注释
+*   读进内存里的 HashLexicon
+* - 二进制: LexiconCompiler 生成, 用 MappedLexicon 直接映射, 启动时间和词典大小无关
+*
+* 词性用位图表示 (最多 64 种), 第 i 位对应 tags().get(i)
+* 查询是常数时间, 不创建任何对象
+* */
+public abstract class Lexicon {
+    // 默认的词典文件, 可以用 -Dlexicon=... 指定 (文本或二进制都可以)
+    static final String DEFAULT_PATH = "input/lexicon.txt";
+    // 打包时 input/lexicon.txt 放在 classpath 的根目录下 (见 pom.xml)
+    static final String RESOURCE = "/lexicon.txt";
+    // 上面两个都找不到时用的词表, 和 input/lexicon.txt 的内容一样
+    static final String BUILTIN = String.join("\n",
+            "cat,N", "dog,N", "boy,N", "pen,N", "catch,V,N", "receive,V", "beats,V",
+            "the,ART", "a,ART", "ugly,ADJ", "beautiful,ADJ");
+    private static Lexicon shared;
+
+    // 查词性位图, 不认识的词返回 0
+    abstract long lookup(CharSequence word);
+
+    abstract List<String> tags();
+
+    abstract int size();
+
+    /*
+    * 所有 parser 共用的词典, 第一次使用时加载
+    * 指定了 -Dlexicon 就只读那个文件; 否则依次找 DEFAULT_PATH (相对当前目录, 在 week1/parser 下运行时可以直接改),
+    * classpath 上的 RESOURCE, 最后是内置的 BUILTIN, 在哪个目录下运行都能用
+    * */
+    static synchronized Lexicon shared() {
+        if (shared == null) {
+            try {
+                shared = loadDefault();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return shared;
+    }
+
+    private static Lexicon loadDefault() throws IOException {
+        String property = System.getProperty("lexicon");
+        if (property != null) return load(Paths.get(property));
+        Path path = Paths.get(DEFAULT_PATH);
+        if (Files.isRegularFile(path)) return load(path);
+        InputStream resource = Lexicon.class.getResourceAsStream(RESOURCE);
+        if (resource != null) {
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(resource, StandardCharsets.UTF_8))) {
+                return loadText(reader, "classpath:" + RESOURCE);
+            }
+        }
+        return loadText(new BufferedReader(new StringReader(BUILTIN)), "builtin");
+    }
+
+    // 根据文件开头的 magic 判断是二进制还是文本格式
+    static Lexicon load(Path path) throws IOException {
+        int magic = 0;
+        try (InputStream in = Files.newInputStream(path)) {
+            DataInputStream data = new DataInputStream(in);
+            if (Files.size(path) >= 4) magic = data.readInt();
+        }
+        if (magic == MappedLexicon.MAGIC) return MappedLexicon.open(path);
+        return loadText(path);
+    }
+
+    static HashLexicon loadText(Path path) throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            return loadText(reader, path.toString());
+        }
+    }
+
+    // source 只用在错误信息里
+    static HashLexicon loadText(BufferedReader reader, String source) throws IOException {
+        List<String> tags = new ArrayList<>();
+        Map<String, Long> entries = new LinkedHashMap<>();
+        String line;
+        int lineNumber = 0;
+        while ((line = reader.readLine()) != null) {
+            lineNumber++;
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) continue;
+            String[] fields = line.split(",");
+            if (fields.length < 2) {
+                throw new IOException(source + ":" + lineNumber + ": expected word,TAG[,TAG...]");
+            }
+            long bits = 0;
+            for (int i = 1; i < fields.length; i++) {
+                String tag = fields[i].trim();
+                int bit = tags.indexOf(tag);
+                if (bit < 0) {
+                    if (tags.size() == 64) throw new IOException(source + ":" + lineNumber + ": more than 64 tags");
+                    bit = tags.size();
+                    tags.add(tag);
+                }
+                bits |= 1L << bit;
+            }
+            entries.merge(fields[0].trim(), bits, (a, b) -> a | b);
+        }
+        return HashLexicon.build(tags, entries);
+    }
+
+    // 对 CharSequence 逐个字符计算, 这样切片 (CharBuffer 等) 也能直接查, 不用先转成 String
+    static int hash(CharSequence word) {
+        int h = 0x811c9dc5;
+        for (int i = 0; i < word.length(); i++) {
+            h ^= word.charAt(i);
+            h *= 0x01000193;
+        }
+        return h ^ (h >>> 16);
+    }
+
+    /*
+    * 词性位 -> 某个 parser 的 Type 位图 (1L << Type.ordinal())
+    * 各个 parser 的 Type 不一样, 该 parser 没有的词性对应 0, 相当于不认识这个词
+    * */
+    <E extends Enum<E>> long[] tagMasks(Class<E> type) {
+        List<String> tags = tags();
+        long[] table = new long[tags.size()];
+        for (E constant: type.getEnumConstants()) {
+            int bit = tags.indexOf(constant.name());
+            if (bit >= 0) table[bit] = 1L << constant.ordinal();
+        }
+        return table;
+    }
+
+    // 把词典的词性位图换成 parser 的 Type 位图, 0 表示该 parser 不认识这个词
+    static long toTypes(long bits, long[] tagMasks) {
+        long types = 0;
+        while (bits != 0) {
+            types |= tagMasks[Long.numberOfTrailingZeros(bits)];
+            bits &= bits - 1;
+        }
+        return types;
+    }
+}
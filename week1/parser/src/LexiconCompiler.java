@@ -0,0 +1,69 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+
+/*
+* 把文本词典编译成 MappedLexicon 使用的二进制文件, 格式见 MappedLexicon
+* 用法: java LexiconCompiler [input/lexicon.txt] [input/lexicon.bin]
+* 之后运行 parser 时加上 -Dlexicon=input/lexicon.bin
+* */
+public class LexiconCompiler {
+
+    static void compile(Path input, Path output) throws IOException {
+        HashLexicon lexicon = Lexicon.loadText(input);
+        List<String> tags = lexicon.tags();
+        String[] keys = lexicon.keys;
+        long[] masks = lexicon.masks;
+
+        // 先算出 slot 区结束的位置, 也就是字符串池的起点
+        long header = 4 + 4;
+        for (String tag: tags) header += 2 + 2L * tag.length();
+        header += 4 + 4;
+        long pool = header + (long) keys.length * MappedLexicon.SLOT_BYTES;
+
+        long poolSize = 0;
+        for (String key: keys) if (key != null) poolSize += 2L * key.length();
+        if (pool + poolSize > Integer.MAX_VALUE) throw new IOException("lexicon too large: " + (pool + poolSize) + " bytes");
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(output)))) {
+            out.writeInt(MappedLexicon.MAGIC);
+            out.writeInt(tags.size());
+            for (String tag: tags) {
+                out.writeShort(tag.length());
+                out.writeChars(tag);
+            }
+            out.writeInt(lexicon.size());
+            out.writeInt(keys.length);
+
+            long offset = pool;
+            for (int slot = 0; slot < keys.length; slot++) {
+                if (keys[slot] == null) {
+                    out.writeInt(0);
+                    out.writeInt(0);
+                    out.writeLong(0);
+                } else {
+                    out.writeInt((int) offset);
+                    out.writeInt(keys[slot].length());
+                    out.writeLong(masks[slot]);
+                    offset += 2L * keys[slot].length();
+                }
+            }
+            for (String key: keys) {
+                if (key != null) out.writeChars(key);
+            }
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        Path input = Paths.get(args.length > 0 ? args[0] : Lexicon.DEFAULT_PATH);
+        Path output = Paths.get(args.length > 1 ? args[1] : "input/lexicon.bin");
+        long start = System.nanoTime();
+        compile(input, output);
+        System.out.printf("%s -> %s (%d bytes) in %.1f ms%n",
+                input, output, Files.size(output), (System.nanoTime() - start) / 1e6);
+    }
+}
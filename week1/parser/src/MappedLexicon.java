@@ -0,0 +1,120 @@
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/*
+* 二进制词典, 由 LexiconCompiler 生成, 运行时用 MappedByteBuffer 映射
+* 打开时只读文件头, 不为每个词条创建 Java 对象, 所以启动时间和词典大小无关
+* 打开时检查文件长度和文件头一致, 截断的文件抛 IOException, 不会等到查词时才越界
+*
+* 文件格式 (大端):
+*   int    magic ("LEX1")
+*   int    词性个数 t
+*   t 个   short 长度 + UTF-16 字符 (词性名)
+*   int    词条个数
+*   int    hash 表容量 capacity (2 的幂)
+*   capacity 个 slot, 每个 16 字节: int 单词在文件中的字节偏移 (0 表示空位), int 单词长度 (字符数), long 词性位图
+*   字符串池: 所有单词的 UTF-16 字符
+* hash 函数和探测方式与 HashLexicon 相同
+* */
+public class MappedLexicon extends Lexicon {
+    static final int MAGIC = 0x4C455831;
+    static final int SLOT_BYTES = 16;
+
+    private final MappedByteBuffer buffer;
+    private final List<String> tags;
+    private final int size;
+    private final int mask;
+    private final int slotsBase;
+
+    private MappedLexicon(MappedByteBuffer buffer, List<String> tags, int size, int capacity, int slotsBase) {
+        this.buffer = buffer;
+        this.tags = tags;
+        this.size = size;
+        this.mask = capacity - 1;
+        this.slotsBase = slotsBase;
+    }
+
+    static MappedLexicon open(Path path) throws IOException {
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            // 映射在 channel 关闭之后依然有效
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        buffer.order(ByteOrder.BIG_ENDIAN);
+        if (buffer.capacity() < 8 || buffer.getInt(0) != MAGIC) throw new IOException(path + ": not a binary lexicon");
+        int pos = 4;
+        int tagCount = buffer.getInt(pos);
+        pos += 4;
+        List<String> tags = new ArrayList<>();
+        for (int i = 0; i < tagCount; i++) {
+            require(path, buffer, pos + 2);
+            int length = buffer.getShort(pos);
+            pos += 2;
+            require(path, buffer, pos + 2L * length);
+            char[] chars = new char[length];
+            for (int k = 0; k < length; k++, pos += 2) chars[k] = buffer.getChar(pos);
+            tags.add(new String(chars));
+        }
+        require(path, buffer, pos + 8);
+        int size = buffer.getInt(pos);
+        int capacity = buffer.getInt(pos + 4);
+        pos += 8;
+        if (Integer.bitCount(capacity) != 1) throw new IOException(path + ": bad capacity " + capacity);
+        long pool = pos + (long) capacity * SLOT_BYTES;
+        require(path, buffer, pool);
+        // 字符串池按 slot 的顺序写, 最后一个非空 slot 的单词正好到文件末尾; 空位至少一半, 往回找几个就能找到
+        long end = pool;
+        for (int slot = capacity - 1; slot >= 0; slot--) {
+            int base = pos + slot * SLOT_BYTES;
+            if (buffer.getInt(base) != 0) {
+                end = buffer.getInt(base) + 2L * buffer.getInt(base + 4);
+                break;
+            }
+        }
+        if (end != buffer.capacity()) {
+            throw new IOException(path + ": expected " + end + " bytes, found " + buffer.capacity());
+        }
+        return new MappedLexicon(buffer, Collections.unmodifiableList(tags), size, capacity, pos);
+    }
+
+    // 文件头里的长度超出了文件, 说明文件被截断了
+    private static void require(Path path, MappedByteBuffer buffer, long end) throws IOException {
+        if (end > buffer.capacity()) throw new IOException(path + ": truncated at " + buffer.capacity() + " bytes");
+    }
+
+    private boolean equals(int offset, int length, CharSequence word) {
+        if (length != word.length()) return false;
+        for (int i = 0; i < length; i++) {
+            if (buffer.getChar(offset + 2 * i) != word.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    // 直接在映射的文件上查, 只用绝对位置的 get, 不改 buffer 的 position, 多线程共享也没问题
+    @Override
+    long lookup(CharSequence word) {
+        int slot = hash(word) & mask;
+        while (true) {
+            int base = slotsBase + slot * SLOT_BYTES;
+            int offset = buffer.getInt(base);
+            if (offset == 0) return 0;
+            if (equals(offset, buffer.getInt(base + 4), word)) return buffer.getLong(base + 8);
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    @Override
+    List<String> tags() {
+        return tags;
+    }
+
+    @Override
+    int size() {
+        return size;
+    }
+}
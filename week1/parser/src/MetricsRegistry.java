@@ -0,0 +1,138 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/*
+* 汇总各个线程的 ParseMetrics
+* 每个 parser 拿一个自己的 Recorder (fork() 出来的 parser 自动拿新的), 记录时只写自己的字段, 不加锁也没有 CAS
+* snapshot() 把所有 Recorder 加起来; 分析还在进行时读到的是近似值, 线程结束 (join / 线程池关闭) 后读是准确的
+*
+* e.g.
+*   MetricsRegistry registry = new MetricsRegistry();
+*   parser.metrics = registry.recorder();
+*   ...
+*   System.out.print(registry.snapshot());
+* */
+public class MetricsRegistry {
+
+    static class Recorder implements ParseMetrics {
+        private final MetricsRegistry registry;
+        long parses;
+        long ruleAttempts;
+        long failedAlternatives;
+        long tokensScanned;
+        long maxDepth;
+        long nodesAllocated;
+        final LatencyHistogram latency = new LatencyHistogram();
+
+        Recorder(MetricsRegistry registry) {
+            this.registry = registry;
+        }
+
+        @Override
+        public void ruleAttempt() {
+            ruleAttempts++;
+        }
+
+        @Override
+        public void alternativeFailed() {
+            failedAlternatives++;
+        }
+
+        @Override
+        public void tokenScanned() {
+            tokensScanned++;
+        }
+
+        @Override
+        public void depth(int depth) {
+            if (depth > maxDepth) maxDepth = depth;
+        }
+
+        @Override
+        public void nodeAllocated() {
+            nodesAllocated++;
+        }
+
+        @Override
+        public void parseFinished(long nanos) {
+            parses++;
+            latency.record(nanos);
+        }
+
+        @Override
+        public ParseMetrics fork() {
+            return registry == null ? this : registry.recorder();
+        }
+
+        void add(Recorder other) {
+            parses += other.parses;
+            ruleAttempts += other.ruleAttempts;
+            failedAlternatives += other.failedAlternatives;
+            tokensScanned += other.tokensScanned;
+            maxDepth = Math.max(maxDepth, other.maxDepth);
+            nodesAllocated += other.nodesAllocated;
+            latency.add(other.latency);
+        }
+
+        void export(Appendable out) throws IOException {
+            out.append(String.format("parses: %d%n", parses));
+            out.append(String.format("rule attempts: %d%n", ruleAttempts));
+            out.append(String.format("failed alternatives: %d%n", failedAlternatives));
+            out.append(String.format("tokens scanned: %d%n", tokensScanned));
+            out.append(String.format("max depth: %d%n", maxDepth));
+            out.append(String.format("nodes allocated: %d%n", nodesAllocated));
+            out.append(String.format("latency (ns):%n"));
+            latency.export(out);
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder s = new StringBuilder();
+            try {
+                export(s);
+            } catch (IOException e) {
+                // StringBuilder 不会抛 IOException
+                throw new UncheckedIOException(e);
+            }
+            return s.toString();
+        }
+    }
+
+    private final ConcurrentLinkedQueue<Recorder> recorders = new ConcurrentLinkedQueue<>();
+
+    Recorder recorder() {
+        Recorder recorder = new Recorder(this);
+        recorders.add(recorder);
+        return recorder;
+    }
+
+    // 所有 Recorder 的合计, 返回的 Recorder 不属于任何 registry
+    Recorder snapshot() {
+        Recorder total = new Recorder(null);
+        for (Recorder recorder: recorders) total.add(recorder);
+        return total;
+    }
+
+    public static void main(String[] args) {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        List<List<String>> batch = BenchmarkInputs.sentences(count, 42);
+        MetricsRegistry registry = new MetricsRegistry();
+
+        MultiTopDownParser prototype = new MultiTopDownParser();
+        prototype.metrics = registry.recorder();
+        try (BatchParser<MultiTopDownParser, MultiTopDownParser.Comp> parser = BatchParser.of(prototype, 2)) {
+            parser.parseAll(batch);
+        }
+        System.out.println("MultiTopDownParser");
+        System.out.print(registry.snapshot());
+
+        MetricsRegistry checkerRegistry = new MetricsRegistry();
+        BackTracingTopDownChecker checker = new BackTracingTopDownChecker(batch.get(0));
+        checker.metrics = checkerRegistry.recorder();
+        for (List<String> s: batch) checker.check(s);
+        System.out.println("BackTracingTopDownChecker");
+        System.out.print(checkerRegistry.snapshot());
+    }
+}
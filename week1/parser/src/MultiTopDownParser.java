@@ -1,3 +1,5 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.*;
 
 /*
@@ -6,15 +8,50 @@ import java.util.*;
 * e.g. NP -> ART N, NP -> ART ADJ N
 * */
 public class MultiTopDownParser {
-    // 读取到的值
-    private enum Type {
+    // 内置文法的符号
+    // 包内可见: 别的类可以用 Type 改内置文法的规则
+    enum Type {
         ART, N, V, NP, VP, ADJ, S, EOS, ERROR,
     }
 
-    // 转换规则
+    private static final String[] TYPE_NAMES = new String[Type.values().length];
+    static {
+        for (Type type: Type.values()) TYPE_NAMES[type.ordinal()] = type.name();
+    }
+
+    // 内置文法的转换规则; load(grammar) 以后不再使用, 是 null
     Map<Type, List<List<Type>>> rules;
+    // 分析时用的文法: 内置文法由 rules 编译 (修改 rules 之后要重新 compile()), 或者是 load 进来的 Grammar.compiled
+    // EarleyParser 等其他分析器也用它
+    CompiledGrammar grammar;
+    // grammar 里每个符号的名字, 开始符号, 以及句子结束用哪一位表示 (内置文法是 Type.EOS)
+    String[] names;
+    int start;
+    int eos;
+    // packrat 模式的备忘表, 为 null 时不开启
+    PackratTable<Result> memo;
+    // 词典, 以及词典中的词性对应本 parser 的哪些符号
+    Lexicon lexicon;
+    long[] tagMasks;
+    // 计数, 默认是什么都不做的 NONE; depth 是 genericParse 当前的递归深度
+    ParseMetrics metrics = ParseMetrics.NONE;
+    private int depth;
+    // 增量模式: 上一次分析的 Tokens, packrat 表里的结果都是对它而言的; examined 是目前读到的最远的下标
+    private Tokens last;
+    private int examined;
+    // 内置文法每条规则的 log 概率, 和 rules 里的规则一一对应; 没有给出的非终结符按均匀分布. 修改之后要重新 compile()
+    Map<Type, double[]> weights = new HashMap<>();
+    // 按 grammar 的规则顺序排好的 log 概率, parseViterbi / parseKBest 用
+    double[] ruleWeights;
+    // parseViterbi 用的分析器和剪枝参数 (见 ViterbiParser), 默认不剪枝
+    private ViterbiParser viterbi;
+    private int beamWidth = Integer.MAX_VALUE;
+    private double beamThreshold = Double.POSITIVE_INFINITY;
+    // parseCky 用的 CKY 分析器, 第一次用的时候才由 grammar 构造; chart 是可变的, 所以 fork() 出来的副本各建一个
+    private CkyParser cky;
 
-    MultiTopDownParser() {
+    MultiTopDownParser(Lexicon lexicon) {
+        this.lexicon = lexicon;
         this.rules = new HashMap<>();
         this.rules.put(
                 Type.S,
@@ -34,94 +71,206 @@ public class MultiTopDownParser {
                         Collections.singletonList(Type.V)
                 )
         );
+        compile();
+    }
+
+    MultiTopDownParser() {
+        this(Lexicon.shared());
+    }
+
+    /*
+    * 给别的线程用的副本: 规则, 编译后的 grammar 和词典都是只读的, 直接共享
+    * 可变的只有 packrat 备忘表, 每个副本各有一份
+    * */
+    private MultiTopDownParser(MultiTopDownParser prototype) {
+        this.lexicon = prototype.lexicon;
+        this.tagMasks = prototype.tagMasks;
+        this.rules = prototype.rules;
+        this.grammar = prototype.grammar;
+        this.names = prototype.names;
+        this.start = prototype.start;
+        this.eos = prototype.eos;
+        this.weights = prototype.weights;
+        this.ruleWeights = prototype.ruleWeights;
+        this.beamWidth = prototype.beamWidth;
+        this.beamThreshold = prototype.beamThreshold;
+        this.metrics = prototype.metrics.fork();
+        if (prototype.memo != null) enablePackrat(prototype.memo.capacity());
+    }
+
+    MultiTopDownParser fork() {
+        return new MultiTopDownParser(this);
+    }
+
+    // 用内置文法: 由 rules 和 weights 重新生成 grammar 等
+    void compile() {
+        this.grammar = CompiledGrammar.compile(Type.class, this.rules);
+        this.names = TYPE_NAMES;
+        this.start = Type.S.ordinal();
+        this.eos = Type.EOS.ordinal();
+        this.tagMasks = this.lexicon.tagMasks(Type.class);
+        this.ruleWeights = compileWeights();
+        reset();
+    }
+
+    /*
+    * 换成从文件读进来的文法: 直接用 grammar.compiled, 符号名和开始符号也用文件里的, 不经过 Type
+    * 所以非终结符叫什么, 有多少个都可以 (原子元素要能在词典里查到); 不能有左递归
+    * 之后 rules / weights 是 null, 想回到内置文法就重新构造一个 parser
+    * */
+    void load(Grammar grammar) {
+        grammar.requireTopDown();
+        this.eos = grammar.endOfSentence();
+        this.grammar = grammar.compiled;
+        this.names = grammar.names;
+        this.start = grammar.start;
+        this.tagMasks = grammar.tagMasks(this.lexicon);
+        this.ruleWeights = grammar.weights;
+        this.rules = null;
+        this.weights = null;
+        reset();
+    }
+
+    // 换了文法以后: 由文法构造的分析器作废, packrat 表按新的符号个数重建
+    private void reset() {
+        this.cky = null;
+        this.viterbi = null;
+        this.last = null;
+        if (this.memo != null) enablePackrat(this.memo.capacity());
+    }
+
+    // 按 CompiledGrammar 的规则顺序排好的 log 概率
+    private double[] compileWeights() {
+        double[] result = new double[this.grammar.ruleCount()];
+        int r = 0;
+        for (Type type: Type.values()) {
+            List<List<Type>> alternatives = this.rules.get(type);
+            if (alternatives == null) continue;
+            double[] w = this.weights.get(type);
+            if (w != null && w.length != alternatives.size()) {
+                throw new IllegalArgumentException(type + " has " + alternatives.size() + " rules but " + w.length + " weights");
+            }
+            for (int i = 0; i < alternatives.size(); i++) {
+                result[r++] = w != null ? w[i] : -Math.log(alternatives.size());
+            }
+        }
+        return result;
+    }
+
+    // 剪枝参数: 每个格子最多留 width 个符号 (<= 0 表示不限), 比最高分低 threshold 以上的扔掉
+    void setBeam(int width, double threshold) {
+        this.beamWidth = width <= 0 ? Integer.MAX_VALUE : width;
+        this.beamThreshold = threshold;
+        this.viterbi = null;
     }
 
     interface Comp {
-        String pretty();
+        // 写进调用方提供的 out, 整棵树共用一个 out, 不生成中间字符串
+        void pretty(Appendable out) throws IOException;
+        default String pretty() {
+            StringBuilder s = new StringBuilder();
+            try {
+                pretty(s);
+            } catch (IOException e) {
+                // StringBuilder 不会抛 IOException
+                throw new UncheckedIOException(e);
+            }
+            return s.toString();
+        }
         void visualize();
+        // 可视化用的 TreeNode 在第一次调用时才构造, 分析过程中只建 AST 本身
         TreeNode getNode();
     }
 
-    // 原子属性: ART, N, V， 不可进一步分解
+    // 原子属性: ART, N, V， 不可进一步分解; type 是符号名
     static class Atom implements Comp {
-        Type type;
+        String type;
         String value;
         TreeNode node;
-        Atom(String value, Type type) {
+        Atom(String value, String type) {
             this.type = type;
             this.value = value;
-            this.node = new TreeNode(this.pretty(), new ArrayList<>());
+        }
+        Atom(String value, Type type) {
+            this(value, type.name());
         }
 
         @Override
-        public String pretty() {
-            return "(" + this.type + " " + this.value + ")";
+        public void pretty(Appendable out) throws IOException {
+            out.append('(').append(this.type).append(' ').append(this.value).append(')');
         }
 
         @Override
         public void visualize() {
-            System.out.print(this.node.toString());
+            System.out.print(this.getNode().toString());
         }
 
         @Override
         public TreeNode getNode() {
+            if (this.node == null) this.node = new TreeNode(this.pretty(), new ArrayList<>());
             return this.node;
         }
     }
 
     // 复合元素，比如 NP, VP, S; 可以进一步分解
     static class Compound implements Comp {
-        Type type;
+        String type;
         List<Comp> e;
         TreeNode node;
-        Compound(Type type, List<Comp> e) {
+        Compound(String type, List<Comp> e) {
             this.type = type;
             this.e = e;
-            ArrayList<TreeNode> nodesList = new ArrayList<>();
-            e.forEach(item -> nodesList.add(item.getNode()));
-            this.node = new TreeNode(this.type.toString(), nodesList);
+        }
+        Compound(Type type, List<Comp> e) {
+            this(type.name(), e);
         }
 
         @Override
-        public String pretty() {
-            StringBuilder s = new StringBuilder("(");
-            s.append(this.type.toString());
-            s.append(" ");
+        public void pretty(Appendable out) throws IOException {
+            out.append('(').append(this.type).append(' ');
             for (Comp comp : this.e) {
-                s.append(comp.pretty());
-                s.append(" ");
+                comp.pretty(out);
+                out.append(' ');
             }
-            s.append(")");
-            return s.toString();
+            out.append(')');
         }
 
         @Override
         public void visualize() {
-            System.out.print(this.node.toString());
+            System.out.print(this.getNode().toString());
         }
 
         @Override
         public TreeNode getNode() {
+            if (this.node == null) {
+                ArrayList<TreeNode> nodesList = new ArrayList<>();
+                this.e.forEach(item -> nodesList.add(item.getNode()));
+                this.node = new TreeNode(this.type, nodesList);
+            }
             return this.node;
         }
     }
 
+    // tags: 当前单词所有可能的词性, 位图 (1L << 符号的编号)
     static class State {
         int startIndex;
-        Type token;
+        long tags;
         String value;
-        State (int index, Type tok, String value) {
+        State (int index, long tags, String value) {
             this.startIndex = index;
-            this.token = tok;
+            this.tags = tags;
             this.value = value;
         }
-        void set (int index, Type tok, String value) {
+        void set (int index, long tags, String value) {
             this.startIndex = index;
-            this.token = tok;
+            this.tags = tags;
             this.value = value;
         }
+        boolean has(int symbol) {
+            return (this.tags & (1L << symbol)) != 0;
+        }
         State copy() {
-            return new State(this.startIndex, this.token, this.value);
+            return new State(this.startIndex, this.tags, this.value);
         }
     }
 
@@ -136,48 +285,79 @@ public class MultiTopDownParser {
         }
     }
 
-    private void scan(State st, List<String> s) {
+    // 查词性, 返回所有可能词性的位图, 不认识的词返回 0
+    long lookup(String word) {
+        return Lexicon.toTypes(this.lexicon.lookup(word), this.tagMasks);
+    }
+
+    // 每个句子只做一次词法分析, 之后 scan 只在 Tokens 上移动下标
+    Tokens tokenize(List<String> s) {
+        return Tokens.lex(s, this.lexicon, this.tagMasks);
+    }
+
+    // 查词典已经在 Tokens.lex 里做完了, 这里只是把下标往后移一个
+    private void scan(State st, Tokens t) {
         int index = st.startIndex;
-        if (index >= s.size()) {
-            st.set(index, Type.EOS, " ");
+        // 和 State.startIndex 一样从 1 开始算, EOS 算作第 t.length 个单词
+        if (index + 1 > this.examined) this.examined = index + 1;
+        if (index >= t.length) {
+            st.set(index, 1L << this.eos, " ");
             return;
         }
-        while (index < s.size()) {
-            switch (s.get(index)) {
-                case "cat":
-                case "dog":
-                case "boy":
-                case "pen":
-                    st.set(index+1, Type.N, s.get(index));
-                    return;
-                case "catch":
-                case "receive":
-                case "beats":
-                    st.set(index+1, Type.V, s.get(index));
-                    return;
-                case "the":
-                case "a":
-                    st.set(index+1, Type.ART, s.get(index));
-                    return;
-                case "ugly":
-                case "beautiful":
-                    st.set(index+1, Type.ADJ, s.get(index));
-                    return;
-                default: index++;
-            }
-        }
-        st.set(index, Type.EOS, " ");
+        this.metrics.tokenScanned();
+        st.set(index+1, t.tags[index], t.word(index));
+    }
+
+
+    // 开启 packrat 模式, capacity 是能缓存的最大句子长度
+    void enablePackrat(int capacity) {
+        this.memo = new PackratTable<>(this.grammar.symbolCount, capacity);
     }
 
+    private Result genericParse(State st, Tokens t, int symbol) {
+        this.metrics.depth(++this.depth);
+        Result res = memoized(st, t, symbol);
+        this.depth--;
+        return res;
+    }
 
-    private Result genericParse(State st, List<String> s, Type startType) {
-        if (!this.rules.containsKey(startType)) {
+    /*
+    * packrat 模式: 复合元素按 (符号, startIndex) 缓存结果和结束时的 State
+    * 兄弟规则回溯时, 再次分析同一位置上的同一成分会直接命中
+    * */
+    private Result memoized(State st, Tokens t, int symbol) {
+        // 当前单词的词性不在 symbol 的 FIRST 集里, 不可能成功, 不查表也不展开
+        if ((this.grammar.lookahead[symbol] & st.tags) == 0) {
+            return new Result(new Atom("error", Type.ERROR), false, false);
+        }
+        if (this.memo == null || !this.grammar.isNonterminal(symbol)) {
+            return expand(st, t, symbol);
+        }
+        PackratTable.Entry<Result> hit = this.memo.get(symbol, st.startIndex);
+        if (hit != null) {
+            st.set(hit.endIndex, hit.endTags, hit.endValue);
+            if (hit.examined > this.examined) this.examined = hit.examined;
+            return hit.result;
+        }
+        int startIndex = st.startIndex;
+        int outer = this.examined;
+        this.examined = startIndex;
+        Result res = expand(st, t, symbol);
+        this.memo.put(symbol, startIndex, res, st.startIndex, st.tags, st.value, this.examined);
+        if (outer > this.examined) this.examined = outer;
+        return res;
+    }
+
+    private Result expand(State st, Tokens t, int symbol) {
+        if (!this.grammar.isNonterminal(symbol)) {
             // 不存在该类型的变换规则, 那么就是原子元素了
-            if (st.token == startType) {
-                Comp a1 = new Atom(st.value, st.token);
+            // 一个单词可能有多个词性, 只要其中有 symbol 就算匹配
+            if (st.has(symbol)) {
+                Comp a1 = new Atom(st.value, this.names[symbol]);
+                this.metrics.nodeAllocated();
                 // 只有处理完原子元素后，才进行 scan
-                scan(st, s);
-                if (st.token == Type.EOS) {
+                scan(st, t);
+                if (st.has(this.eos)) {
                     return new Result(a1, true, true);
                 } else {
                     return new Result(a1, true, false);
@@ -190,7 +370,7 @@ public class MultiTopDownParser {
         // 复合元素的处理
         /*
         * 这里有一个 Bug:
-        * 能实现预期行为：State _st = st.copy(); st.set(_st.startIndex, _st.token, _st.value);
+        * 能实现预期行为：State _st = st.copy(); st.set(_st.startIndex, _st.tags, _st.value);
         * 不能实现预期行为: State _st = st.copy();
         * 体现在例如处理 NP VP 规则，后者对于 NP, VP 的 startIndex 都是 1
         * 原因: Java function pass by value
@@ -199,18 +379,26 @@ public class MultiTopDownParser {
         * 见 https://stackoverflow.com/questions/40480/is-java-pass-by-reference-or-pass-by-value
         * State _st = st.copy(), 在每次递归调用时，实际上新创建了一个 Object
         * 所以前一个 type 可能推进了 st.startIndex，但这个改变是在函数内部对新 Object 的改变，轮到下一个 type 时就没了
-        * State _st = st.copy(); st.set(_st.startIndex, _st.token, _st.value);
+        * State _st = st.copy(); st.set(_st.startIndex, _st.tags, _st.value);
         * 这种做法只是 setValue, 没有新的 Object, 所以就达到预期
         * */
-        State _st = st.copy();
-        for (List<Type> types: this.rules.get(startType)) {
+        CompiledGrammar g = this.grammar;
+        long[] lookahead = g.ruleLookahead;
+        // 跳过 FIRST 集里没有当前单词的词性的规则
+        // 只剩一条规则可选时 (LL(1) 的情况) 失败了也不用再试别的, 不需要保存初始状态
+        long tags = st.tags;
+        int end = g.ruleStart[symbol + 1];
+        int r = next(lookahead, tags, g.ruleStart[symbol], end);
+        State _st = r < end && next(lookahead, tags, r + 1, end) < end ? st.copy() : null;
+        for (; r < end; r = next(lookahead, tags, r + 1, end)) {
             List<Comp> cur = new ArrayList<>();
             boolean isValid = true;
             boolean isEOS = false;
+            this.metrics.ruleAttempt();
             // 对于每一条规则, 初始状态都要置成一样的
-            st.set(_st.startIndex, _st.token, _st.value);
-            for (Type type: types) {
-                Result res = genericParse(st, s, type);
+            if (_st != null) st.set(_st.startIndex, _st.tags, _st.value);
+            for (int i = g.rhsStart[r]; i < g.rhsStart[r + 1]; i++) {
+                Result res = genericParse(st, t, g.rhs[i]);
                 if (!res.valid) {
                     isValid = false;
                     break;
@@ -222,24 +410,143 @@ public class MultiTopDownParser {
                 }
             }
             if (isValid) {
-                return new Result(new Compound(startType, cur), true, isEOS);
+                this.metrics.nodeAllocated();
+                return new Result(new Compound(this.names[symbol], cur), true, isEOS);
             }
+            this.metrics.alternativeFailed();
+            if (_st == null) break;
         }
         return new Result(new Atom("error", Type.ERROR), false, false);
     }
 
-    private Comp parseEntry(List<String> s) {
-        State st = new State(0, Type.EOS, " ");
-        scan(st, s);
-        Result res = genericParse(st, s, Type.S);
+    // [from, end) 里第一条预测集和 tags 相交的规则, 没有就返回 end
+    private static int next(long[] lookahead, long tags, int from, int end) {
+        while (from < end && (lookahead[from] & tags) == 0) from++;
+        return from;
+    }
+
+    Comp parseEntry(List<String> s) {
+        if (this.metrics == ParseMetrics.NONE) return parse(s);
+        long start = System.nanoTime();
+        Comp c = parse(s);
+        this.metrics.parseFinished(System.nanoTime() - start);
+        return c;
+    }
+
+    private Comp parse(List<String> s) {
+        if (this.memo != null) this.memo.clear();
+        this.last = null;
+        return parse(tokenize(s));
+    }
+
+    private Comp parse(Tokens t) {
+        this.depth = 0;
+        this.examined = 0;
+        State st = new State(0, 1L << this.eos, " ");
+        scan(st, t);
+        Result res = genericParse(st, t, this.start);
         if (!res.valid || !res.isEOS) return new Atom("error", Type.ERROR);
         return res.e;
     }
 
+    /*
+    * 增量分析: 先用 parseIncremental 分析整个句子, 之后每次修改只调用 edit
+    * edit 不清空 packrat 表, 只作废读过修改部分的结果, 修改之后的结果下标整体移动 (PackratTable.edit)
+    * 再从 S 开始分析一遍: 没有被修改影响的成分直接命中, 得到的还是原来的 Compound 对象,
+    * 需要重新分析的只有修改的部分, 以及包含它的那些成分 (从 S 到修改处的路径)
+    * */
+    Comp parseIncremental(List<String> s) {
+        // 之后的 edit 还要读原句, 复制一份, 调用方修改自己的 List 不会影响这里
+        Tokens t = tokenize(new ArrayList<>(s));
+        if (this.memo == null || t.length > this.memo.capacity()) enablePackrat(Math.max(64, 2 * t.length));
+        this.memo.clear();
+        this.last = t;
+        return parse(t);
+    }
+
+    // 原句从 position 开始删掉 removed 个词, 插入 inserted, 返回修改之后的句子的分析结果
+    Comp edit(int position, int removed, List<String> inserted) {
+        if (this.last == null) throw new IllegalStateException("edit() without a previous parseIncremental()");
+        Tokens old = this.last;
+        if (position < 0 || removed < 0 || position + removed > old.source.size()) {
+            throw new IndexOutOfBoundsException("position " + position + ", removed " + removed
+                    + ", sentence length " + old.source.size());
+        }
+        int from = old.tokenIndex(position);
+        int to = old.tokenIndex(position + removed);
+        Tokens t = old.splice(position, removed, inserted, this.lexicon, this.tagMasks);
+        if (t.length > this.memo.capacity()) {
+            // 表不够大了, 换一个大的, 这一次相当于重新分析
+            enablePackrat(2 * t.length);
+        } else {
+            // 表的下标和 State.startIndex 一样, 比单词的下标大 1
+            this.memo.edit(from + 1, to + 1, t.length - old.length);
+        }
+        this.last = t;
+        return parse(t);
+    }
+
+    /*
+    * 用 CKY 分析: 句子合法 (按上下文无关文法的定义) 就一定能得到一棵树, 和句子有多少种分析方法无关
+    * 和 parseEntry 的区别: parseEntry 对每个成分只取第一个成功的规则 (再加上读到 EOS 就算成功),
+    * 有的合法句子会被它拒绝, 有的不完整的句子会被它接受; parseCky 不会
+    * 有多棵树时, 按规则的顺序选, 每个子成分尽量短
+    * */
+    Comp parseCky(List<String> s) {
+        if (this.cky == null) this.cky = new CkyParser(this.grammar, this.start);
+        Tokens t = tokenize(s);
+        Comp c = this.cky.parse(t.tags, t.length, treeBuilder(t));
+        return c == null ? new Atom("error", Type.ERROR) : c;
+    }
+
+    // parseCky / parseViterbi 从 chart 生成树时用: 符号的编号就是 grammar 里的编号
+    private CkyParser.TreeBuilder<Comp> treeBuilder(Tokens t) {
+        String[] names = this.names;
+        return new CkyParser.TreeBuilder<Comp>() {
+            @Override
+            public Comp atom(int symbol, int token) {
+                return new Atom(t.word(token), names[symbol]);
+            }
+
+            @Override
+            public Comp compound(int symbol, List<Comp> children) {
+                return new Compound(names[symbol], children);
+            }
+        };
+    }
+
+    private ViterbiParser viterbi() {
+        if (this.viterbi == null) {
+            this.viterbi = new ViterbiParser(this.grammar, this.ruleWeights, this.start, this.beamWidth, this.beamThreshold);
+        }
+        return this.viterbi;
+    }
+
+    /*
+    * 返回概率最大的树 (规则的 log 概率之和最大), 而不是规则顺序上第一个成功的
+    * 开了剪枝 (setBeam) 以后是近似的: 最好的树可能被剪掉, 这时返回剩下的里面最好的, 或者 error
+    * */
+    Comp parseViterbi(List<String> s) {
+        Tokens t = tokenize(s);
+        Comp c = viterbi().parse(t.tags, t.length, treeBuilder(t));
+        return c == null ? new Atom("error", Type.ERROR) : c;
+    }
+
+    /*
+    * 分数最高的 k 棵树, 从高到低; 不合法的句子返回空的 List
+    * 没有给 weights 时按均匀分布打分 (分支少的树分数高)
+    * 分析方法有指数多种时也只算用得到的部分, 开销随 k 增长, 不随树的总数增长
+    * */
+    List<Comp> parseKBest(List<String> s, int k) {
+        Tokens t = tokenize(s);
+        return viterbi().parseKBest(t.tags, t.length, k, treeBuilder(t));
+    }
+
     private void test(List<String> s) {
         Comp c = parseEntry(s);
         System.out.println(c.pretty());
         c.visualize();
+        if (this.memo != null) System.out.println(this.memo.stats());
     }
 
     public static void main(String[] args) {
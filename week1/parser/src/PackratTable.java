@@ -0,0 +1,129 @@
+/*
+* packrat 备忘表: 缓存 genericParse 在 (符号, startIndex) 上的结果, 符号是 CompiledGrammar 里的编号
+* 同一个非终结符在同一位置上的分析结果是确定的, 回溯时不需要重新推导
+* 除了结果本身, 还要记下分析结束后的 State (index, tags, value), 命中时直接恢复
+*
+* 表的大小固定为 symbolCount * (capacity + 1), 超出 capacity 的位置不缓存
+* 每个句子开始时 clear(), 只把 generation 加一, 表和 Entry 对象都复用, 不产生垃圾
+* 增量分析时不 clear(), 而是 edit(): 只作废读过修改部分的 Entry, 其余的保留或者移动下标
+* */
+public class PackratTable<R> {
+
+    static class Entry<R> {
+        int generation;
+        R result;
+        int endIndex;
+        long endTags;
+        String endValue;
+        // 分析这个成分时读到的最远的下标 (包括失败的候选规则读过的), 增量分析用
+        int examined;
+    }
+
+    private final int capacity;
+    private final Entry<R>[] table;
+    private int generation = 1;
+    // 最近一次分析 (clear() 或 edit() 之后) 的命中 / 未命中次数
+    long hits;
+    long misses;
+
+    PackratTable(int symbolCount, int capacity) {
+        this.capacity = capacity;
+        @SuppressWarnings("unchecked")
+        Entry<R>[] table = (Entry<R>[]) new Entry<?>[symbolCount * (capacity + 1)];
+        this.table = table;
+    }
+
+    // 开始分析新句子: 之前的所有 Entry 作废
+    void clear() {
+        generation++;
+        resetCounters();
+    }
+
+    // 未命中返回 null
+    Entry<R> get(int symbol, int index) {
+        if (index <= capacity) {
+            Entry<R> entry = table[symbol * (capacity + 1) + index];
+            if (entry != null && entry.generation == generation) {
+                hits++;
+                return entry;
+            }
+        }
+        misses++;
+        return null;
+    }
+
+    // 不知道读到了哪里: edit() 时一定作废
+    void put(int symbol, int index, R result, int endIndex, long endTags, String endValue) {
+        put(symbol, index, result, endIndex, endTags, endValue, Integer.MAX_VALUE);
+    }
+
+    void put(int symbol, int index, R result, int endIndex, long endTags, String endValue, int examined) {
+        if (index > capacity) return;
+        int slot = symbol * (capacity + 1) + index;
+        Entry<R> entry = table[slot];
+        if (entry == null) {
+            entry = new Entry<>();
+            table[slot] = entry;
+        }
+        entry.generation = generation;
+        entry.result = result;
+        entry.endIndex = endIndex;
+        entry.endTags = endTags;
+        entry.endValue = endValue;
+        entry.examined = examined;
+    }
+
+    /*
+    * 增量分析: 输入中 [from, to) 这一段被替换, 后面的下标整体移动 delta
+    * 一个 Entry 读过的范围是 [index, examined]
+    *   完全在 from 之前的, 原样保留
+    *   完全在 to 之后的, 结果不变, 只是下标移动 delta (超出 capacity 的丢掉)
+    *   其余的 (读过被替换的部分, 或者跨过插入点) 作废
+    * 在原表上移动, 不分配新表; 只看 to 之前的 Entry 和需要移动的 Entry
+    * */
+    void edit(int from, int to, int delta) {
+        resetCounters();
+        int width = capacity + 1;
+        for (int symbol = 0; symbol * width < table.length; symbol++) {
+            int base = symbol * width;
+            for (int index = 0; index < Math.min(to, width); index++) {
+                Entry<R> entry = table[base + index];
+                if (entry != null && entry.generation == generation && entry.examined >= from) entry.generation = 0;
+            }
+            // 往后移从后往前搬, 往前移从前往后搬, 这样目标位置上的 Entry 总是已经搬走或者作废了
+            if (delta > 0) {
+                for (int index = capacity; index >= to; index--) move(base, index, delta);
+            } else if (delta < 0) {
+                for (int index = to; index <= capacity; index++) move(base, index, delta);
+            }
+        }
+    }
+
+    private void move(int base, int index, int delta) {
+        Entry<R> entry = table[base + index];
+        if (entry == null || entry.generation != generation) return;
+        int target = index + delta;
+        if (target > capacity) {
+            entry.generation = 0;
+            return;
+        }
+        entry.endIndex += delta;
+        entry.examined += delta;
+        // 交换: 目标位置上原来的 Entry 已经无效了, 换过来留着复用
+        table[base + index] = table[base + target];
+        table[base + target] = entry;
+    }
+
+    int capacity() {
+        return capacity;
+    }
+
+    private void resetCounters() {
+        hits = 0;
+        misses = 0;
+    }
+
+    public String stats() {
+        return "packrat hits=" + hits + ", misses=" + misses;
+    }
+}
@@ -0,0 +1,202 @@
+import java.util.*;
+
+/*
+* 共享压缩句法森林 (shared packed parse forest, SPPF)
+* genericParse 只返回第一条成功的规则, 歧义直接丢掉; 但把所有树都展开又会爆内存
+* 这里相同的 (符号, start, end) 只存一个 SymbolNode, 被所有父节点共享
+* 规则的前缀用 RuleNode 表示 (二叉化), 所以一个节点的所有切分方式也是共享的, 内存是多项式级的
+* 需要具体的树时, 用 iterator() 按需一棵一棵生成 Comp
+* */
+public class ParseForest implements Iterable<MultiTopDownParser.Comp> {
+
+    // 成分节点: type (符号名) 推出 start..end; 原子节点带 word, 复合节点有若干种推导
+    static class SymbolNode {
+        String type;
+        int start;
+        int end;
+        String word;
+        List<RuleNode> alternatives = new ArrayList<>();
+        SymbolNode(String type, int start, int end, String word) {
+            this.type = type;
+            this.start = start;
+            this.end = end;
+            this.word = word;
+        }
+        boolean isAtom() {
+            return word != null;
+        }
+    }
+
+    // 规则前缀节点: rule.rhs 的前 dot 个成分推出 start..end
+    // dot == 0 只出现在空规则上 (ε 结点, start == end), 没有 family, 代表一种没有子节点的推导
+    static class RuleNode {
+        EarleyParser.Rule rule;
+        int dot;
+        int start;
+        int end;
+        List<Family> families = new ArrayList<>();
+        RuleNode(EarleyParser.Rule rule, int dot, int start, int end) {
+            this.rule = rule;
+            this.dot = dot;
+            this.start = start;
+            this.end = end;
+        }
+    }
+
+    // 一种切分方式: 前 dot-1 个成分 (prefix, dot == 1 时为 null) + 最后一个成分 (last)
+    static class Family {
+        RuleNode prefix;
+        SymbolNode last;
+        Family(RuleNode prefix, SymbolNode last) {
+            this.prefix = prefix;
+            this.last = last;
+        }
+    }
+
+    SymbolNode root;
+    int symbolNodes;
+    int ruleNodes;
+
+    ParseForest(SymbolNode root, int symbolNodes, int ruleNodes) {
+        this.root = root;
+        this.symbolNodes = symbolNodes;
+        this.ruleNodes = ruleNodes;
+    }
+
+    public boolean isEmpty() {
+        return root == null;
+    }
+
+    // 树的总数, 不展开 (超过 long 范围时饱和)
+    public long countTrees() {
+        if (root == null) return 0;
+        return count(root, new IdentityHashMap<Object, Long>());
+    }
+
+    private long count(SymbolNode node, Map<Object, Long> memo) {
+        if (node.isAtom()) return 1;
+        Long cached = memo.get(node);
+        if (cached != null) return cached;
+        long total = 0;
+        for (RuleNode r: node.alternatives) total = saturatedAdd(total, count(r, memo));
+        memo.put(node, total);
+        return total;
+    }
+
+    private long count(RuleNode node, Map<Object, Long> memo) {
+        if (node.dot == 0) return 1;
+        Long cached = memo.get(node);
+        if (cached != null) return cached;
+        long total = 0;
+        for (Family f: node.families) {
+            long left = f.prefix == null ? 1 : count(f.prefix, memo);
+            total = saturatedAdd(total, saturatedMultiply(left, count(f.last, memo)));
+        }
+        memo.put(node, total);
+        return total;
+    }
+
+    private static long saturatedAdd(long a, long b) {
+        long r = a + b;
+        return r < 0 ? Long.MAX_VALUE : r;
+    }
+
+    private static long saturatedMultiply(long a, long b) {
+        if (a != 0 && b > Long.MAX_VALUE / a) return Long.MAX_VALUE;
+        return a * b;
+    }
+
+    @Override
+    public Iterator<MultiTopDownParser.Comp> iterator() {
+        if (root == null) return Collections.emptyIterator();
+        return trees(root);
+    }
+
+    // 仿照 Guava AbstractIterator: 子类只需要实现 computeNext, 没有下一个元素时返回 endOfData()
+    abstract static class LazyIterator<T> implements Iterator<T> {
+        private T next;
+        private boolean ready;
+        private boolean done;
+
+        abstract T computeNext();
+
+        T endOfData() {
+            done = true;
+            return null;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (!ready && !done) {
+                next = computeNext();
+                ready = !done;
+            }
+            return ready;
+        }
+
+        @Override
+        public T next() {
+            if (!hasNext()) throw new NoSuchElementException();
+            ready = false;
+            return next;
+        }
+    }
+
+    private static Iterator<MultiTopDownParser.Comp> trees(final SymbolNode node) {
+        if (node.isAtom()) {
+            MultiTopDownParser.Comp atom = new MultiTopDownParser.Atom(node.word, node.type);
+            return Collections.singletonList(atom).iterator();
+        }
+        return new LazyIterator<MultiTopDownParser.Comp>() {
+            int alt = 0;
+            Iterator<List<MultiTopDownParser.Comp>> children;
+
+            @Override
+            MultiTopDownParser.Comp computeNext() {
+                while (true) {
+                    if (children != null && children.hasNext()) {
+                        return new MultiTopDownParser.Compound(node.type, children.next());
+                    }
+                    if (alt == node.alternatives.size()) return endOfData();
+                    children = childLists(node.alternatives.get(alt++));
+                }
+            }
+        };
+    }
+
+    // 前缀的每一种展开 × 最后一个成分的每一棵树
+    private static Iterator<List<MultiTopDownParser.Comp>> childLists(final RuleNode node) {
+        if (node.dot == 0) return Collections.singletonList(Collections.<MultiTopDownParser.Comp>emptyList()).iterator();
+        return new LazyIterator<List<MultiTopDownParser.Comp>>() {
+            int fam = 0;
+            Family family;
+            Iterator<List<MultiTopDownParser.Comp>> prefixes;
+            List<MultiTopDownParser.Comp> prefix;
+            Iterator<MultiTopDownParser.Comp> lasts;
+
+            @Override
+            List<MultiTopDownParser.Comp> computeNext() {
+                while (true) {
+                    if (lasts != null && lasts.hasNext()) {
+                        List<MultiTopDownParser.Comp> list = new ArrayList<>(prefix);
+                        list.add(lasts.next());
+                        return list;
+                    }
+                    if (prefixes != null && prefixes.hasNext()) {
+                        prefix = prefixes.next();
+                        lasts = trees(family.last);
+                        continue;
+                    }
+                    if (fam == node.families.size()) return endOfData();
+                    family = node.families.get(fam++);
+                    if (family.prefix == null) {
+                        prefixes = Collections.singletonList(Collections.<MultiTopDownParser.Comp>emptyList()).iterator();
+                    } else {
+                        prefixes = childLists(family.prefix);
+                    }
+                    lasts = null;
+                }
+            }
+        };
+    }
+}
@@ -0,0 +1,41 @@
+/*
+* 分析过程的计数接口, 默认关闭
+* parser 里的 metrics 字段默认是 NONE, 所有方法都是空的, JIT 内联之后几乎没有开销
+* 计时 (System.nanoTime) 只在 metrics != NONE 时才做
+* 要打开就换成 MetricsRegistry.recorder() 得到的 Recorder
+*
+* 一个 ParseMetrics 对象只给一个 parser (一个线程) 用, 不做同步
+* */
+interface ParseMetrics {
+    ParseMetrics NONE = new ParseMetrics() {
+    };
+
+    // 尝试一条规则 (或一个非终结符的展开)
+    default void ruleAttempt() {
+    }
+
+    // 一条规则失败, 要换下一条或者回溯
+    default void alternativeFailed() {
+    }
+
+    // scan 读入一个单词 / 字符
+    default void tokenScanned() {
+    }
+
+    // 当前的递归深度 (checker 是显式栈的大小)
+    default void depth(int depth) {
+    }
+
+    // 新建了一个 AST 节点 (checker 是新建的 State)
+    default void nodeAllocated() {
+    }
+
+    // 一次分析结束, 用了多少纳秒
+    default void parseFinished(long nanos) {
+    }
+
+    // 给 fork() 出来的 parser 用的: NONE 还是 NONE, Recorder 在同一个 registry 里新建一个
+    default ParseMetrics fork() {
+        return this;
+    }
+}
@@ -0,0 +1,82 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+* 词法分析的结果: 每个句子只查一次词典
+* tags[i] 是第 i 个 (认识的) 单词所有可能词性的位图, offsets[i] 是它在原句中的下标
+* 不认识的词在这里就被跳过了, 分析时只需要在数组上移动下标, 回溯就是把下标改回去
+* */
+public class Tokens {
+    final List<String> source;
+    final long[] tags;
+    final int[] offsets;
+    final int length;
+
+    private Tokens(List<String> source, long[] tags, int[] offsets, int length) {
+        this.source = source;
+        this.tags = tags;
+        this.offsets = offsets;
+        this.length = length;
+    }
+
+    static Tokens lex(List<String> s, Lexicon lexicon, long[] tagMasks) {
+        long[] tags = new long[s.size()];
+        int[] offsets = new int[s.size()];
+        int n = 0;
+        for (int i = 0; i < s.size(); i++) {
+            long bits = Lexicon.toTypes(lexicon.lookup(s.get(i)), tagMasks);
+            if (bits != 0) {
+                tags[n] = bits;
+                offsets[n] = i;
+                n++;
+            }
+        }
+        return new Tokens(s, tags, offsets, n);
+    }
+
+    String word(int i) {
+        return source.get(offsets[i]);
+    }
+
+    // 原句中下标小于 wordIndex 的 (认识的) 单词个数, 即原句的第 wordIndex 个词在 tags 里的位置
+    int tokenIndex(int wordIndex) {
+        int lo = 0;
+        int hi = length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (offsets[mid] < wordIndex) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+
+    /*
+    * 修改之后的句子: 原句从 position 开始删掉 removed 个词, 插入 inserted
+    * 只查 inserted 的词典, 其余的词性直接复制过来
+    * */
+    Tokens splice(int position, int removed, List<String> inserted, Lexicon lexicon, long[] tagMasks) {
+        List<String> s = new ArrayList<>(source.size() - removed + inserted.size());
+        s.addAll(source.subList(0, position));
+        s.addAll(inserted);
+        s.addAll(source.subList(position + removed, source.size()));
+
+        int from = tokenIndex(position);
+        int to = tokenIndex(position + removed);
+        Tokens middle = lex(inserted, lexicon, tagMasks);
+        int n = from + middle.length + (length - to);
+        long[] tags = new long[n];
+        int[] offsets = new int[n];
+        System.arraycopy(this.tags, 0, tags, 0, from);
+        System.arraycopy(this.offsets, 0, offsets, 0, from);
+        for (int i = 0; i < middle.length; i++) {
+            tags[from + i] = middle.tags[i];
+            offsets[from + i] = position + middle.offsets[i];
+        }
+        int shift = inserted.size() - removed;
+        for (int i = to; i < length; i++) {
+            tags[from + middle.length + i - to] = this.tags[i];
+            offsets[from + middle.length + i - to] = this.offsets[i] + shift;
+        }
+        return new Tokens(s, tags, offsets, n);
+    }
+}
@@ -1,3 +1,5 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -8,9 +10,38 @@ public class TopDownParser {
         ART, N, V, EOS, ERROR
     }
 
+    // 词典, 以及词典中的词性对应本 parser 的哪些 Type
+    Lexicon lexicon;
+    long[] tagMasks;
+
+    TopDownParser(Lexicon lexicon) {
+        this.lexicon = lexicon;
+        this.tagMasks = lexicon.tagMasks(Type.class);
+    }
+
+    TopDownParser() {
+        this(Lexicon.shared());
+    }
+
+    static long bit(Type type) {
+        return 1L << type.ordinal();
+    }
+
     interface Comp {
-        String pretty();
+        // 写进调用方提供的 out, 整棵树共用一个 out, 不生成中间字符串
+        void pretty(Appendable out) throws IOException;
+        default String pretty() {
+            StringBuilder s = new StringBuilder();
+            try {
+                pretty(s);
+            } catch (IOException e) {
+                // StringBuilder 不会抛 IOException
+                throw new UncheckedIOException(e);
+            }
+            return s.toString();
+        }
         void visualize();
+        // 可视化用的 TreeNode 在第一次调用时才构造, 分析过程中只建 AST 本身
         TreeNode getNode();
     }
 
@@ -22,21 +53,21 @@ public class TopDownParser {
         Atom(String value, Type type) {
             this.type = type;
             this.value = value;
-            this.node = new TreeNode(this.pretty(), new ArrayList<>());
         }
 
         @Override
-        public String pretty() {
-            return "(" + this.type + " " + this.value + ")";
+        public void pretty(Appendable out) throws IOException {
+            out.append('(').append(this.type.name()).append(' ').append(this.value).append(')');
         }
 
         @Override
         public void visualize() {
-            System.out.print(this.node.toString());
+            System.out.print(this.getNode().toString());
         }
 
         @Override
         public TreeNode getNode() {
+            if (this.node == null) this.node = new TreeNode(this.pretty(), new ArrayList<>());
             return this.node;
         }
     }
@@ -47,26 +78,25 @@ public class TopDownParser {
         // Version1 NP -> ART N
         NP(Comp a1, Comp a2) {
             a = new Comp[]{a1, a2};
-            this.node = new TreeNode("NP", Arrays.asList(a1.getNode(), a2.getNode()));
         }
 
         @Override
-        public String pretty() {
-            String s = "(NP ";
-            s += a[0].pretty();
-            s += " ";
-            s += a[1].pretty();
-            s += ")";
-            return s;
+        public void pretty(Appendable out) throws IOException {
+            out.append("(NP ");
+            a[0].pretty(out);
+            out.append(' ');
+            a[1].pretty(out);
+            out.append(')');
         }
 
         @Override
         public void visualize() {
-            System.out.print(this.node.toString());
+            System.out.print(this.getNode().toString());
         }
 
         @Override
         public TreeNode getNode() {
+            if (this.node == null) this.node = new TreeNode("NP", Arrays.asList(a[0].getNode(), a[1].getNode()));
             return this.node;
         }
     }
@@ -77,26 +107,25 @@ public class TopDownParser {
         // version1: VP -> V NP
         VP(Comp a1, Comp a2) {
             a = new Comp[]{a1, a2};
-            this.node = new TreeNode("VP", Arrays.asList(a1.getNode(), a2.getNode()));
         }
 
         @Override
-        public String pretty() {
-            String s = "(VP ";
-            s += a[0].pretty();
-            s += " ";
-            s += a[1].pretty();
-            s += ")";
-            return s;
+        public void pretty(Appendable out) throws IOException {
+            out.append("(VP ");
+            a[0].pretty(out);
+            out.append(' ');
+            a[1].pretty(out);
+            out.append(')');
         }
 
         @Override
         public void visualize() {
-            System.out.print(this.node.toString());
+            System.out.print(this.getNode().toString());
         }
 
         @Override
         public TreeNode getNode() {
+            if (this.node == null) this.node = new TreeNode("VP", Arrays.asList(a[0].getNode(), a[1].getNode()));
             return this.node;
         }
     }
@@ -106,39 +135,45 @@ public class TopDownParser {
         TreeNode node;
         Sentence(Comp a1, Comp a2) {
             a = new Comp[]{a1, a2};
-            this.node = new TreeNode("S", Arrays.asList(a1.getNode(), a2.getNode()));
         }
 
         @Override
-        public String pretty() {
-            return a[0].pretty() + " " + a[1].pretty();
+        public void pretty(Appendable out) throws IOException {
+            a[0].pretty(out);
+            out.append(' ');
+            a[1].pretty(out);
         }
 
         @Override
         public void visualize() {
-            System.out.print(this.node.toString());
+            System.out.print(this.getNode().toString());
         }
 
         @Override
         public TreeNode getNode() {
+            if (this.node == null) this.node = new TreeNode("S", Arrays.asList(a[0].getNode(), a[1].getNode()));
             return this.node;
         }
     }
 
+    // tags: 当前单词所有可能的词性, 位图 (1L << Type.ordinal())
     class State {
         int startIndex;
-        Type token;
+        long tags;
         String value;
-        State (int index, Type tok, String value) {
+        State (int index, long tags, String value) {
             this.startIndex = index;
-            this.token = tok;
+            this.tags = tags;
             this.value = value;
         }
-        void set (int index, Type tok, String value) {
+        void set (int index, long tags, String value) {
             this.startIndex = index;
-            this.token = tok;
+            this.tags = tags;
             this.value = value;
         }
+        boolean has(Type type) {
+            return (this.tags & bit(type)) != 0;
+        }
     }
 
     class Result {
@@ -150,40 +185,22 @@ public class TopDownParser {
         }
     }
 
-    private void scan(State st, List<String> s) {
+    // 查词典已经在 Tokens.lex 里做完了, 这里只是把下标往后移一个
+    private void scan(State st, Tokens t) {
         int index = st.startIndex;
-        if (index >= s.size()) {
-            st.set(index, Type.EOS, " ");
+        if (index >= t.length) {
+            st.set(index, bit(Type.EOS), " ");
             return;
         }
-        while (index < s.size()) {
-            switch (s.get(index)) {
-                case "cat":
-                case "dog":
-                case "boy":
-                case "pen":
-                    st.set(index+1, Type.N, s.get(index));
-                    return;
-                case "catch":
-                case "receive":
-                    st.set(index+1, Type.V, s.get(index));
-                    return;
-                case "the":
-                case "a":
-                    st.set(index+1, Type.ART, s.get(index));
-                    return;
-                default: index++;
-            }
-        }
-        st.set(index, Type.EOS, " ");
+        st.set(index+1, t.tags[index], t.word(index));
     }
 
-    private Result parseNP(State st, List<String> s) {
-        if (st.token == Type.ART) {
-            Comp a1 = new Atom(st.value, st.token);
-            scan(st, s);
-            if (st.token == Type.N) {
-                Comp a2 = new Atom(st.value, st.token);
+    private Result parseNP(State st, Tokens t) {
+        if (st.has(Type.ART)) {
+            Comp a1 = new Atom(st.value, Type.ART);
+            scan(st, t);
+            if (st.has(Type.N)) {
+                Comp a2 = new Atom(st.value, Type.N);
                 Comp c = new NP(a1, a2);
                 return new Result(c, true);
             }
@@ -191,11 +208,11 @@ public class TopDownParser {
         return new Result(new Atom("error", Type.ERROR), false);
     }
 
-    private Result parseVP(State st, List<String> s) {
-        if (st.token == Type.V) {
-            Comp a1 = new Atom(st.value, st.token);
-            scan(st, s);
-            Result res = parseNP(st, s);
+    private Result parseVP(State st, Tokens t) {
+        if (st.has(Type.V)) {
+            Comp a1 = new Atom(st.value, Type.V);
+            scan(st, t);
+            Result res = parseNP(st, t);
             if (!res.valid) {
                 return new Result(new Atom("error", Type.ERROR), false);
             }
@@ -206,15 +223,16 @@ public class TopDownParser {
         return new Result(new Atom("error", Type.ERROR), false);
     }
 
-    private Comp parse(List<String> s) {
-        State st = new State(0, Type.EOS, " ");
-        scan(st, s);
-        Result res = parseNP(st, s);
+    Comp parse(List<String> s) {
+        Tokens t = Tokens.lex(s, this.lexicon, this.tagMasks);
+        State st = new State(0, bit(Type.EOS), " ");
+        scan(st, t);
+        Result res = parseNP(st, t);
         if (!res.valid) return new Atom("error", Type.ERROR);
         Comp a1 = res.e;
 
-        scan(st, s);
-        Result res2 = parseVP(st, s);
+        scan(st, t);
+        Result res2 = parseVP(st, t);
         if (!res2.valid) return new Atom("error", Type.ERROR);
         Comp a2 = res2.e;
 
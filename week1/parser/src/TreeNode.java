@@ -1,3 +1,5 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.Iterator;
 import java.util.List;
 
@@ -14,21 +16,37 @@ public class TreeNode {
 
     public String toString() {
         StringBuilder buffer = new StringBuilder(50);
-        print(buffer, "", "");
+        try {
+            print(buffer);
+        } catch (IOException e) {
+            // StringBuilder 不会抛 IOException
+            throw new UncheckedIOException(e);
+        }
         return buffer.toString();
     }
 
-    private void print(StringBuilder buffer, String prefix, String childrenPrefix) {
-        buffer.append(prefix);
-        buffer.append(name);
-        buffer.append('\n');
+    /*
+    * 直接写进调用方提供的 out (StringBuilder, Writer, CharBuffer ...)
+    * 原来每个子节点都要拼一个新的前缀字符串 (childrenPrefix + "├── "), 树深的时候是平方级的字符串操作
+    * 现在整棵树共用一个前缀 buffer, 进入子节点时追加, 返回时截断
+    * */
+    public void print(Appendable out) throws IOException {
+        print(out, new StringBuilder(), "");
+    }
+
+    private void print(Appendable out, StringBuilder prefix, String connector) throws IOException {
+        // 逐个字符写前缀, 避免 Writer.append(CharSequence) 内部再 toString()
+        for (int i = 0; i < prefix.length(); i++) out.append(prefix.charAt(i));
+        out.append(connector);
+        out.append(name);
+        out.append('\n');
+        int mark = prefix.length();
+        if (connector.equals("├── ")) prefix.append("│   ");
+        else if (connector.equals("└── ")) prefix.append("    ");
         for (Iterator<TreeNode> it = children.iterator(); it.hasNext();) {
             TreeNode next = it.next();
-            if (it.hasNext()) {
-                next.print(buffer, childrenPrefix + "├── ", childrenPrefix + "│   ");
-            } else {
-                next.print(buffer, childrenPrefix + "└── ", childrenPrefix + "    ");
-            }
+            next.print(out, prefix, it.hasNext() ? "├── " : "└── ");
         }
+        prefix.setLength(mark);
     }
 }
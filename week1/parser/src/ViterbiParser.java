@@ -0,0 +1,549 @@
+import java.util.*;
+
+/*
+* 带权重的 CKY: 每条规则有一个 log 概率, 返回概率最大的一棵树 (Viterbi)
+* 规则的二元化和 CkyParser 一样: A -> B C D 拆成 A -> B @ (权重是原规则的), @ -> C D (权重 0)
+* 单元规则 A -> B 在每个格子里反复松弛, 直到不再变化 (log 概率都 <= 0, 环不会让分数变大)
+*
+* 剪枝 (beam), 为了让长句子的延迟有上限:
+*   beamWidth  每个格子最多留几个符号 (分数最高的那几个)
+*   threshold  比格子里最高分低 threshold 以上的符号扔掉
+* 剪得越狠越快, 但最好的树可能被剪掉 (这时返回的是剩下的里面最好的, 或者分析失败)
+* 不剪枝时 (beamWidth >= 64, threshold 无穷大) 结果是精确的
+*
+* 不支持空规则; 符号 (包括中间符号) 超过 64 个, 或者有 > 0 的权重时构造函数抛 IllegalArgumentException
+* chart 放在对象里反复使用, 一个 ViterbiParser 只能给一个线程用
+* */
+public class ViterbiParser {
+    private static final int MAX_SYMBOLS = 64;
+    // back 的取值: >= 0 是二元规则 (binary 里的下标), LEXICAL 是单词本身, 其余是 -(单元规则编号) - 2
+    private static final int LEXICAL = -1;
+
+    private final CompiledGrammar g;
+    private final int start;
+    final int beamWidth;
+    final double threshold;
+
+    // 二元规则 (包括二元化得到的): 左边 b, 右边 c 的规则是 pairStart[b << 6 | c] .. pairStart[(b << 6 | c) + 1] - 1
+    private final int[] pairStart = new int[MAX_SYMBOLS * MAX_SYMBOLS + 1];
+    private final int[] binaryParent;
+    private final int[] binaryLeft;
+    private final int[] binaryRight;
+    private final double[] binaryWeight;
+    private final long[] rightOf = new long[MAX_SYMBOLS];
+    private long leftMask;
+    // 单元规则 A -> B: unaryChild[u] = B, unaryParent[u] = A
+    private final int[] unaryParent;
+    private final int[] unaryChild;
+    private final double[] unaryWeight;
+
+    // chart: 每个格子 width 个位置, 存符号, 分数, 怎么来的 (back) 和分割点
+    // width 比 beamWidth 多留一些, 放被剪掉但是单元规则的树还要用到的子节点
+    private int[] rows = new int[0];
+    private int[] count = new int[0];
+    private int[] symbols = new int[0];
+    private double[] scores = new double[0];
+    private int[] backs = new int[0];
+    private int[] splits = new int[0];
+    private final int width;
+    // 算一个格子时用的临时数组, 下标是符号
+    private final double[] best = new double[MAX_SYMBOLS];
+    private final int[] bestBack = new int[MAX_SYMBOLS];
+    private final int[] bestSplit = new int[MAX_SYMBOLS];
+    private final int[] order = new int[MAX_SYMBOLS];
+    // best 里有值的符号
+    private long touched;
+    // 单元规则有环 (A -> B, B -> A) 时同一个片段上有无穷多棵树, parseKBest 不支持
+    private final boolean unaryCycle;
+
+    /*
+    * weights[r]: CompiledGrammar 里第 r 条规则的 log 概率
+    * */
+    ViterbiParser(CompiledGrammar g, double[] weights, int start, int beamWidth, double threshold) {
+        if (g.symbolCount > MAX_SYMBOLS) throw new IllegalArgumentException(g.symbolCount + " symbols, at most 64");
+        if (weights.length != g.ruleCount()) {
+            throw new IllegalArgumentException(weights.length + " weights for " + g.ruleCount() + " rules");
+        }
+        if (beamWidth < 1) throw new IllegalArgumentException("beam width " + beamWidth);
+        this.g = g;
+        this.start = start;
+        this.beamWidth = Math.min(beamWidth, MAX_SYMBOLS);
+        this.threshold = threshold;
+
+        // 先数一下, 再按 (b, c) 分组填进数组
+        List<int[]> binaries = new ArrayList<>();
+        List<Double> binaryWeights = new ArrayList<>();
+        List<int[]> unaries = new ArrayList<>();
+        int next = g.symbolCount;
+        for (int a = 0; a < g.symbolCount; a++) {
+            for (int r = g.ruleStart[a]; r < g.ruleStart[a + 1]; r++) {
+                if (weights[r] > 0 || Double.isNaN(weights[r])) {
+                    throw new IllegalArgumentException("rule " + r + " has weight " + weights[r] + ", log probabilities must be <= 0");
+                }
+                int first = g.rhsStart[r];
+                int last = g.rhsStart[r + 1];
+                if (first == last) throw new IllegalArgumentException("empty rule for symbol " + a);
+                if (last - first == 1) {
+                    unaries.add(new int[]{a, g.rhs[first], r});
+                    continue;
+                }
+                int right = g.rhs[last - 1];
+                for (int i = last - 2; i > first; i--) {
+                    if (next == MAX_SYMBOLS) throw new IllegalArgumentException("more than 64 symbols after binarization");
+                    binaries.add(new int[]{next, g.rhs[i], right});
+                    binaryWeights.add(0.0);
+                    right = next++;
+                }
+                binaries.add(new int[]{a, g.rhs[first], right});
+                binaryWeights.add(weights[r]);
+            }
+        }
+
+        for (int[] b: binaries) pairStart[(b[1] << 6 | b[2]) + 1]++;
+        for (int i = 0; i < MAX_SYMBOLS * MAX_SYMBOLS; i++) pairStart[i + 1] += pairStart[i];
+        int[] fill = Arrays.copyOf(pairStart, pairStart.length);
+        this.binaryParent = new int[binaries.size()];
+        this.binaryLeft = new int[binaries.size()];
+        this.binaryRight = new int[binaries.size()];
+        this.binaryWeight = new double[binaries.size()];
+        for (int i = 0; i < binaries.size(); i++) {
+            int[] b = binaries.get(i);
+            int k = fill[b[1] << 6 | b[2]]++;
+            binaryParent[k] = b[0];
+            binaryLeft[k] = b[1];
+            binaryRight[k] = b[2];
+            binaryWeight[k] = binaryWeights.get(i);
+            rightOf[b[1]] |= 1L << b[2];
+            leftMask |= 1L << b[1];
+        }
+
+        this.unaryParent = new int[unaries.size()];
+        this.unaryChild = new int[unaries.size()];
+        this.unaryWeight = new double[unaries.size()];
+        long parents = 0;
+        for (int u = 0; u < unaries.size(); u++) {
+            int[] rule = unaries.get(u);
+            unaryParent[u] = rule[0];
+            unaryChild[u] = rule[1];
+            unaryWeight[u] = weights[rule[2]];
+            parents |= 1L << rule[0];
+        }
+        // 单元规则链上的符号各不相同, 最多有 bitCount(parents) 个要额外留下的子节点
+        this.width = Math.min(MAX_SYMBOLS, this.beamWidth + Long.bitCount(parents));
+
+        // reach[b]: 通过单元规则能推出 b 的符号 (不含 b 自己, 除非有环)
+        long[] reach = new long[MAX_SYMBOLS];
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int u = 0; u < unaryParent.length; u++) {
+                long merged = reach[unaryChild[u]] | reach[unaryParent[u]] | (1L << unaryParent[u]);
+                if (merged != reach[unaryChild[u]]) {
+                    reach[unaryChild[u]] = merged;
+                    changed = true;
+                }
+            }
+        }
+        boolean cycle = false;
+        for (int b = 0; b < MAX_SYMBOLS; b++) cycle |= (reach[b] & (1L << b)) != 0;
+        this.unaryCycle = cycle;
+    }
+
+    private int cell(int from, int end) {
+        return rows[end - from] + from;
+    }
+
+    // 分数最高的树的 log 概率, 句子不合法 (或者被剪掉了) 时是负无穷
+    double score(long[] tags, int length) {
+        if (length == 0) return Double.NEGATIVE_INFINITY;
+        fill(tags, length);
+        int c = cell(0, length);
+        for (int i = 0; i < count[c]; i++) {
+            if (symbols[c * width + i] == start) return scores[c * width + i];
+        }
+        return Double.NEGATIVE_INFINITY;
+    }
+
+    /*
+    * 生成分数最高的树, 句子不合法或者被剪掉时返回 null
+    * */
+    <T> T parse(long[] tags, int length, CkyParser.TreeBuilder<T> builder) {
+        if (score(tags, length) == Double.NEGATIVE_INFINITY) return null;
+        return build(start, 0, length, builder);
+    }
+
+    private void fill(long[] tags, int length) {
+        if (rows.length < length + 1) rows = new int[length + 1];
+        for (int len = 1; len <= length; len++) rows[len] = len == 1 ? 0 : rows[len - 1] + length - len + 2;
+        int cells = length * (length + 1) / 2;
+        if (count.length < cells) count = new int[cells];
+        if (symbols.length < cells * width) {
+            symbols = new int[cells * width];
+            scores = new double[cells * width];
+            backs = new int[cells * width];
+            splits = new int[cells * width];
+        }
+
+        for (int i = 0; i < length; i++) {
+            clear();
+            for (long t = tags[i]; t != 0; t &= t - 1) {
+                int s = Long.numberOfTrailingZeros(t);
+                if (s < g.symbolCount && !g.isNonterminal(s)) update(s, 0, LEXICAL, i);
+            }
+            unary();
+            store(cell(i, i + 1));
+        }
+        for (int len = 2; len <= length; len++) {
+            for (int from = 0, end = len; end <= length; from++, end++) {
+                clear();
+                for (int p = from + 1; p < end; p++) combine(cell(from, p), cell(p, end), p);
+                unary();
+                store(cell(from, end));
+            }
+        }
+    }
+
+    private void clear() {
+        for (long t = touched; t != 0; t &= t - 1) best[Long.numberOfTrailingZeros(t)] = Double.NEGATIVE_INFINITY;
+        touched = 0;
+    }
+
+    private boolean update(int symbol, double score, int back, int split) {
+        if ((touched & (1L << symbol)) != 0 && score <= best[symbol]) return false;
+        touched |= 1L << symbol;
+        best[symbol] = score;
+        bestBack[symbol] = back;
+        bestSplit[symbol] = split;
+        return true;
+    }
+
+    private void combine(int left, int right, int split) {
+        int leftCount = count[left];
+        int rightCount = count[right];
+        if (leftCount == 0 || rightCount == 0) return;
+        for (int i = left * width, li = i + leftCount; i < li; i++) {
+            int b = symbols[i];
+            if ((leftMask & (1L << b)) == 0) continue;
+            long rights = rightOf[b];
+            for (int j = right * width, rj = j + rightCount; j < rj; j++) {
+                int c = symbols[j];
+                if ((rights & (1L << c)) == 0) continue;
+                double score = scores[i] + scores[j];
+                int pair = b << 6 | c;
+                for (int k = pairStart[pair]; k < pairStart[pair + 1]; k++) {
+                    update(binaryParent[k], score + binaryWeight[k], k, split);
+                }
+            }
+        }
+    }
+
+    // 单元规则: Bellman-Ford, 最多松弛 64 轮
+    private void unary() {
+        if (unaryParent.length == 0 || touched == 0) return;
+        for (int round = 0; round < MAX_SYMBOLS; round++) {
+            boolean changed = false;
+            for (int u = 0; u < unaryParent.length; u++) {
+                int child = unaryChild[u];
+                if ((touched & (1L << child)) == 0) continue;
+                if (update(unaryParent[u], best[child] + unaryWeight[u], -u - 2, -1)) changed = true;
+            }
+            if (!changed) return;
+        }
+    }
+
+    /*
+    * 剪枝后存进 chart: 按分数从高到低排, 比最高分低 threshold 以上的不要, 最多留 beamWidth 个
+    * 留下的符号如果是由单元规则得到的, 它的子节点 (同一个格子里) 也要留下, 否则生成树时找不到
+    * */
+    private void store(int c) {
+        int n = 0;
+        for (long t = touched; t != 0; t &= t - 1) {
+            int s = Long.numberOfTrailingZeros(t);
+            int i = n++;
+            while (i > 0 && best[order[i - 1]] < best[s]) {
+                order[i] = order[i - 1];
+                i--;
+            }
+            order[i] = s;
+        }
+        long kept = 0;
+        for (int i = 0; i < n && i < beamWidth; i++) {
+            if (best[order[i]] < best[order[0]] - threshold) break;
+            kept |= 1L << order[i];
+        }
+        for (long chain = kept; chain != 0; ) {
+            int s = Long.numberOfTrailingZeros(chain);
+            chain &= chain - 1;
+            if (bestBack[s] >= LEXICAL) continue;
+            int child = unaryChild[-bestBack[s] - 2];
+            if ((kept & (1L << child)) == 0) {
+                kept |= 1L << child;
+                chain |= 1L << child;
+            }
+        }
+        int base = c * width;
+        int size = 0;
+        for (; kept != 0; kept &= kept - 1) {
+            int s = Long.numberOfTrailingZeros(kept);
+            symbols[base + size] = s;
+            scores[base + size] = best[s];
+            backs[base + size] = bestBack[s];
+            splits[base + size] = bestSplit[s];
+            size++;
+        }
+        count[c] = size;
+    }
+
+    private int find(int c, int symbol) {
+        int i = slot(c, symbol);
+        if (i < 0) throw new IllegalStateException("symbol " + symbol + " not in cell");
+        return i;
+    }
+
+    // 格子 c 里 symbol 的位置, 没有返回 -1
+    private int slot(int c, int symbol) {
+        for (int i = c * width, end = i + count[c]; i < end; i++) {
+            if (symbols[i] == symbol) return i;
+        }
+        return -1;
+    }
+
+    private <T> T build(int symbol, int from, int end, CkyParser.TreeBuilder<T> builder) {
+        int i = find(cell(from, end), symbol);
+        int back = backs[i];
+        if (back == LEXICAL) return builder.atom(symbol, from);
+        if (back < LEXICAL) {
+            int u = -back - 2;
+            return builder.compound(symbol, Collections.singletonList(build(unaryChild[u], from, end, builder)));
+        }
+        List<T> children = new ArrayList<>();
+        collect(back, from, splits[i], end, children, builder);
+        return builder.compound(symbol, children);
+    }
+
+    // 二元规则 k 的两个子节点; 右边是中间符号的话把它展开, 这样 A -> B C D 得到的是三个子节点
+    private <T> void collect(int k, int from, int split, int end, List<T> children, CkyParser.TreeBuilder<T> builder) {
+        while (true) {
+            children.add(build(binaryLeft[k], from, split, builder));
+            int right = binaryRight[k];
+            if (right < g.symbolCount) {
+                children.add(build(right, split, end, builder));
+                return;
+            }
+            int i = find(cell(split, end), right);
+            k = backs[i];
+            from = split;
+            split = splits[i];
+        }
+    }
+
+    /*
+    * k-best: 分数最高的 k 棵树, 从高到低 (Huang & Chiang 2005 的 lazy 算法)
+    * chart 里的每个 (符号, 片段) 是一个结点, 它的每一种分法 (二元规则 + 分割点, 单元规则, 单词本身) 是一条边
+    * 结点第一次被访问时才列出它的边, 第 j 好的树也是要用到时才算:
+    *   每个结点有一个候选堆, 一开始每条边放一个 "子结点都取第 1 好" 的候选
+    *   取出第 i 好的之后, 把它的后继 (某一个子结点换成下一名) 放进堆
+    * 除了填 chart, 开销只和 k 以及用到的结点有关, 不会把所有树都列出来 (k = 1 时只展开最好的那棵树上的结点)
+    * 开了剪枝 (beamWidth / threshold) 时只在剩下的符号里找
+    * */
+    <T> List<T> parseKBest(long[] tags, int length, int k, CkyParser.TreeBuilder<T> builder) {
+        if (unaryCycle) throw new IllegalStateException("k-best is not supported for grammars with unary cycles");
+        List<T> trees = new ArrayList<>();
+        if (k <= 0 || score(tags, length) == Double.NEGATIVE_INFINITY) return trees;
+        Map<Integer, Node> nodes = new HashMap<>();
+        Node top = node(nodes, find(cell(0, length), start), 0, length);
+        for (int i = 0; i < k; i++) {
+            Derivation d = kth(nodes, top, i);
+            if (d == null) break;
+            trees.add(build(nodes, top, d, builder));
+        }
+        return trees;
+    }
+
+    // 一种分法: rule 是二元规则的下标, 或者 -(单元规则) - 2, 或者 LEXICAL
+    private static final class Edge {
+        final int rule;
+        final double weight;
+        final Node[] tails;
+
+        Edge(int rule, double weight, Node[] tails) {
+            this.rule = rule;
+            this.weight = weight;
+            this.tails = tails;
+        }
+    }
+
+    // 一棵树: 用 edge, 第 i 个子结点取它的第 ranks[i] 好 (从 0 开始)
+    private static final class Derivation {
+        final Edge edge;
+        final int[] ranks;
+        final double score;
+
+        Derivation(Edge edge, int[] ranks, double score) {
+            this.edge = edge;
+            this.ranks = ranks;
+            this.score = score;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Derivation)) return false;
+            Derivation other = (Derivation) o;
+            return edge == other.edge && Arrays.equals(ranks, other.ranks);
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(edge) * 31 + Arrays.hashCode(ranks);
+        }
+    }
+
+    private static final class Node {
+        final int symbol;
+        final int from;
+        final int end;
+        // 第 1 好的树的分数, 就是 chart 里的分数
+        final double best;
+        List<Edge> edges;
+        PriorityQueue<Derivation> candidates;
+        // 已经确定名次的树, 第 i 个就是第 i 好
+        List<Derivation> found;
+        Set<Derivation> seen;
+
+        Node(int symbol, int from, int end, double best) {
+            this.symbol = symbol;
+            this.from = from;
+            this.end = end;
+            this.best = best;
+        }
+    }
+
+    private Node node(Map<Integer, Node> nodes, int slot, int from, int end) {
+        Node node = nodes.get(slot);
+        if (node == null) {
+            node = new Node(symbols[slot], from, end, scores[slot]);
+            nodes.put(slot, node);
+        }
+        return node;
+    }
+
+    // 列出结点的所有边, 子结点都必须在 chart 里 (没被剪掉)
+    private List<Edge> edges(Map<Integer, Node> nodes, Node node) {
+        List<Edge> edges = new ArrayList<>();
+        int a = node.symbol;
+        if (a < g.symbolCount && !g.isNonterminal(a)) {
+            edges.add(new Edge(LEXICAL, 0, new Node[0]));
+            return edges;
+        }
+        int c = cell(node.from, node.end);
+        for (int u = 0; u < unaryParent.length; u++) {
+            if (unaryParent[u] != a) continue;
+            int child = slot(c, unaryChild[u]);
+            if (child >= 0) edges.add(new Edge(-u - 2, unaryWeight[u], new Node[]{node(nodes, child, node.from, node.end)}));
+        }
+        for (int p = node.from + 1; p < node.end; p++) {
+            int left = cell(node.from, p);
+            int right = cell(p, node.end);
+            for (int i = left * width, li = i + count[left]; i < li; i++) {
+                long rights = rightOf[symbols[i]];
+                for (int j = right * width, rj = j + count[right]; j < rj; j++) {
+                    if ((rights & (1L << symbols[j])) == 0) continue;
+                    int pair = symbols[i] << 6 | symbols[j];
+                    for (int k = pairStart[pair]; k < pairStart[pair + 1]; k++) {
+                        if (binaryParent[k] != a) continue;
+                        edges.add(new Edge(k, binaryWeight[k],
+                                new Node[]{node(nodes, i, node.from, p), node(nodes, j, p, node.end)}));
+                    }
+                }
+            }
+        }
+        return edges;
+    }
+
+    /*
+    * 子结点分别取 ranks 名时的分数, 有一个子结点没有这么多棵树就返回 null
+    * 第 1 名的分数 chart 里已经有了, 不用展开子结点; 所以只有真正用到的结点才会列出边
+    * */
+    private Derivation derivation(Map<Integer, Node> nodes, Edge edge, int[] ranks) {
+        double score = edge.weight;
+        for (int i = 0; i < ranks.length; i++) {
+            if (ranks[i] == 0) {
+                score += edge.tails[i].best;
+                continue;
+            }
+            Derivation d = kth(nodes, edge.tails[i], ranks[i]);
+            if (d == null) return null;
+            score += d.score;
+        }
+        return new Derivation(edge, ranks, score);
+    }
+
+    // 结点的第 rank 好的树 (从 0 开始), 没有这么多返回 null
+    private Derivation kth(Map<Integer, Node> nodes, Node node, int rank) {
+        if (node.found == null) {
+            node.edges = edges(nodes, node);
+            node.candidates = new PriorityQueue<>(Math.max(1, node.edges.size()),
+                    (x, y) -> Double.compare(y.score, x.score));
+            node.found = new ArrayList<>();
+            node.seen = new HashSet<>();
+            for (Edge edge: node.edges) {
+                Derivation d = derivation(nodes, edge, new int[edge.tails.length]);
+                if (d != null && node.seen.add(d)) node.candidates.add(d);
+            }
+        }
+        while (node.found.size() <= rank) {
+            if (!node.found.isEmpty()) {
+                Derivation last = node.found.get(node.found.size() - 1);
+                for (int i = 0; i < last.ranks.length; i++) {
+                    int[] ranks = last.ranks.clone();
+                    ranks[i]++;
+                    Derivation d = derivation(nodes, last.edge, ranks);
+                    if (d != null && node.seen.add(d)) node.candidates.add(d);
+                }
+            }
+            if (node.candidates.isEmpty()) return null;
+            node.found.add(node.candidates.poll());
+        }
+        return node.found.get(rank);
+    }
+
+    private <T> T build(Map<Integer, Node> nodes, Node node, Derivation d, CkyParser.TreeBuilder<T> builder) {
+        if (d.edge.rule == LEXICAL) return builder.atom(node.symbol, node.from);
+        List<T> children = new ArrayList<>();
+        collect(nodes, d, children, builder);
+        return builder.compound(node.symbol, children);
+    }
+
+    // 右边是中间符号的话展开, 和 1-best 的 collect 一样
+    private <T> void collect(Map<Integer, Node> nodes, Derivation d, List<T> children, CkyParser.TreeBuilder<T> builder) {
+        Edge edge = d.edge;
+        for (int i = 0; i < edge.tails.length; i++) {
+            Node tail = edge.tails[i];
+            Derivation sub = kth(nodes, tail, d.ranks[i]);
+            if (tail.symbol >= g.symbolCount) {
+                collect(nodes, sub, children, builder);
+            } else {
+                children.add(build(nodes, tail, sub, builder));
+            }
+        }
+    }
+
+    public static void main(String[] args) {
+        // NP -> NP NP, VP -> VP NP: "receive the dog the cat" 有两种分法, parseCky 按规则顺序取, parseViterbi 看权重
+        MultiTopDownParser parser = BenchmarkInputs.weightedParser();
+        List<String> s = Arrays.asList("the boy receive the dog the cat".split(" "));
+        System.out.println("parseCky:     " + parser.parseCky(s).pretty());
+        System.out.println("parseViterbi: " + parser.parseViterbi(s).pretty());
+        parser.weights.put(MultiTopDownParser.Type.VP, new double[]{Math.log(0.7), Math.log(0.05), Math.log(0.25)});
+        parser.compile();
+        System.out.println("VP -> VP NP less likely: " + parser.parseViterbi(s).pretty());
+
+        System.out.println("3-best:");
+        for (MultiTopDownParser.Comp c: parser.parseKBest(s, 3)) System.out.println("  " + c.pretty());
+
+
+        // 剪枝: 每个格子只留 4 个符号, 和最好的差 4.0 以上的丢掉
+        parser.setBeam(4, 4.0);
+        System.out.println("beam 4/4.0:   " + parser.parseViterbi(s).pretty());
+    }
+}
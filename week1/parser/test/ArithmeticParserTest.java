@@ -0,0 +1,112 @@
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class ArithmeticParserTest {
+    // 带结构的写法, pretty() 不加括号, 看不出 1-2-3 是怎么结合的
+    private static String shape(ArithmeticParser.Exp e) {
+        if (e instanceof ArithmeticParser.Num) return Integer.toString(((ArithmeticParser.Num) e).value);
+        if (e instanceof ArithmeticParser.Parenthesis) return "(" + shape(((ArithmeticParser.Parenthesis) e).e) + ")";
+        ArithmeticParser.Exp[] children;
+        String name;
+        if (e instanceof ArithmeticParser.Plus) {
+            children = ((ArithmeticParser.Plus) e).e;
+            name = "Plus";
+        } else if (e instanceof ArithmeticParser.Minus) {
+            children = ((ArithmeticParser.Minus) e).e;
+            name = "Minus";
+        } else if (e instanceof ArithmeticParser.Mult) {
+            children = ((ArithmeticParser.Mult) e).e;
+            name = "Mult";
+        } else {
+            children = ((ArithmeticParser.Div) e).e;
+            name = "Div";
+        }
+        return name + "[" + shape(children[0]) + ", " + shape(children[1]) + "]";
+    }
+
+    @Test
+    public void iterativeBuildsTheSameTree() {
+        ArithmeticParser parser = new ArithmeticParser();
+        String[][] cases = {
+                {"1-2-3", "Minus[Minus[1, 2], 3]"},
+                {"8/2/2", "Div[Div[8, 2], 2]"},
+                {"1+2*3", "Plus[1, Mult[2, 3]]"},
+                {"2*3-4/2", "Minus[Mult[2, 3], Div[4, 2]]"},
+                {"((1+2)*(3-(4/2)))-5", "Minus[(Mult[(Plus[1, 2]), (Minus[3, (Div[4, 2])])]), 5]"},
+        };
+        for (String[] c: cases) {
+            ArithmeticParser.Exp recursive = parser.parse(c[0]);
+            assertNull(parser.error);
+            ArithmeticParser.Exp iterative = parser.parseIterative(c[0]);
+            assertNull(parser.error);
+            assertEquals(c[1], shape(recursive));
+            assertEquals(c[1], shape(iterative));
+            assertEquals(recursive.evaluate(), iterative.evaluate());
+        }
+        for (String s: BenchmarkInputs.expressions(50, 64, 4, 42)) {
+            assertEquals(shape(parser.parse(s)), shape(parser.parseIterative(s)));
+        }
+    }
+
+    @Test
+    public void deepParenthesesDoNotOverflowTheStack() {
+        int depth = 100000;
+        StringBuilder s = new StringBuilder();
+        for (int i = 0; i < depth; i++) s.append('(');
+        s.append("42");
+        for (int i = 0; i < depth; i++) s.append(')');
+        ArithmeticParser parser = new ArithmeticParser();
+        ArithmeticParser.Exp e = parser.parseIterative(s);
+        assertNull(parser.error);
+        // 求值和 shape 都是递归的, 这里用循环数括号的层数
+        int levels = 0;
+        while (e instanceof ArithmeticParser.Parenthesis) {
+            e = ((ArithmeticParser.Parenthesis) e).e;
+            levels++;
+        }
+        assertEquals(depth, levels);
+        assertEquals(42, ((ArithmeticParser.Num) e).value);
+
+        // ((((1)*2+1)*2+1)...: 2^(depth+1) - 1, int 回绕以后是 -1; ExpProgram 用显式栈求值
+        ArithmeticParser.Exp nested = parser.parseIterative(BenchmarkInputs.nested(depth));
+        assertNull(parser.error);
+        assertEquals(-1, ExpProgram.compile(nested, false).run());
+    }
+
+    // parse 和 parseIterative 的值和错误信息一致
+    private static void assertScan(String s, int value, String error) {
+        ArithmeticParser parser = new ArithmeticParser();
+        assertEquals(s, value, parser.parse(s).evaluate());
+        assertEquals(s, error, parser.error);
+        assertEquals(s, value, parser.parseIterative(s).evaluate());
+        assertEquals(s, error, parser.error);
+    }
+
+    @Test
+    public void scanReadsMultiDigitLiterals() {
+        assertScan("123+4567", 4690, null);
+        assertScan(" 12 *\t34 ", 408, null);
+        assertScan("007", 7, null);
+        assertScan("2147483647", Integer.MAX_VALUE, null);
+        assertScan("2147483646+1", Integer.MAX_VALUE, null);
+    }
+
+    @Test
+    public void scanRejectsOverflow() {
+        assertScan("2147483648", -1, "position 0: integer overflow");
+        assertScan("1+99999999999", -1, "position 2: integer overflow");
+    }
+
+    @Test
+    public void errorsReportTheirPosition() {
+        assertScan("1+a", -1, "position 2: unexpected character 'a'");
+        assertScan("1 + 2 $ 3", -1, "position 6: unexpected character '$'");
+        assertScan("(1+2", -1, "position 4: unexpected end of input");
+        assertScan("((1)", -1, "position 4: unexpected end of input");
+        assertScan("1+2)", -1, "position 3: unexpected ')'");
+        assertScan("(1+2))*3", -1, "position 5: unexpected ')'");
+        assertScan("1+*2", -1, "position 2: unexpected '*'");
+        assertScan("", -1, "position 0: unexpected end of input");
+    }
+}
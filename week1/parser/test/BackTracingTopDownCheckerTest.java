@@ -0,0 +1,59 @@
+import static org.junit.Assert.*;
+
+import java.util.*;
+
+import org.junit.Test;
+
+public class BackTracingTopDownCheckerTest {
+    private static List<String> words(String s) {
+        return Arrays.asList(s.split(" "));
+    }
+
+    @Test
+    public void ckyAgreesWithBacktracking() {
+        BackTracingTopDownChecker checker = new BackTracingTopDownChecker(Collections.emptyList());
+        BackTracingTopDownChecker cky = checker.fork();
+        cky.useCky = true;
+        BackTracingTopDownChecker ckyFork = cky.fork();
+        for (List<String> s: BenchmarkInputs.sentences(2000, 7, 0.5, 42)) {
+            boolean expected = checker.check(s) == BackTracingTopDownChecker.Outcome.ACCEPT;
+            assertEquals(s.toString(), expected, checker.checkEntry(s));
+            assertEquals(s.toString(), expected, cky.checkEntry(s));
+            assertEquals(s.toString(), expected, ckyFork.checkEntry(s));
+        }
+    }
+
+    // 空规则 CKY 表示不了: load 不失败, checkEntry 回溯
+    @Test
+    public void emptyRulesFallBackToBacktracking() {
+        BackTracingTopDownChecker checker = new BackTracingTopDownChecker(Collections.emptyList());
+        checker.load(Grammar.parse("S -> NP VP\nNP -> ART N\nVP -> V ADJ\nADJ -> ε\n"));
+        checker.useCky = true;
+        assertTrue(checker.checkEntry(words("the cat catch")));
+        assertFalse(checker.checkEntry(words("the cat")));
+        assertTrue(checker.fork().checkEntry(words("a dog receive")));
+    }
+
+    // LL(1) 文法: 单词只有一个词性时找到一条规则就展开; catch 既是 N 又是 V, 还是按一般情况找
+    @Test
+    public void ll1GrammarChecksSingleAndMultiTagWords() {
+        BackTracingTopDownChecker checker = new BackTracingTopDownChecker(Collections.emptyList());
+        checker.load(Grammar.parse("S -> NP VP\nNP -> ART N\nVP -> V NP\n"));
+        assertTrue(checker.ll1);
+        assertEquals(BackTracingTopDownChecker.Outcome.ACCEPT, checker.check(words("the boy beats the pen")));
+        assertEquals(BackTracingTopDownChecker.Outcome.ACCEPT, checker.check(words("the catch catch a catch")));
+        assertEquals(BackTracingTopDownChecker.Outcome.REJECT, checker.check(words("the boy beats the")));
+        assertEquals(BackTracingTopDownChecker.Outcome.REJECT, checker.check(words("boy beats the pen")));
+
+        assertFalse(new BackTracingTopDownChecker(Collections.emptyList()).ll1);
+    }
+
+    @Test
+    public void stepBudgetAppliesToDefaultCheckEntry() {
+        BackTracingTopDownChecker checker = new BackTracingTopDownChecker(words("the cat catch a pen"));
+        assertTrue(checker.checkEntry());
+        checker.setStepBudget(3);
+        assertEquals(BackTracingTopDownChecker.Outcome.BUDGET_EXCEEDED, checker.check());
+        assertFalse(checker.checkEntry());
+    }
+}
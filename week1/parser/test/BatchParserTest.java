@@ -0,0 +1,34 @@
+import static org.junit.Assert.*;
+
+import java.util.*;
+
+import org.junit.Test;
+
+public class BatchParserTest {
+
+    @Test
+    public void streamMatchesListInOrder() {
+        // 比一个窗口 (2 个线程 × 4 × 256) 多, 最后一个窗口不满
+        List<List<String>> batch = BenchmarkInputs.sentences(5000, 42);
+        MultiTopDownParser prototype = new MultiTopDownParser();
+        List<String> expected = new ArrayList<>();
+        List<String> streamed = new ArrayList<>();
+        try (BatchParser<MultiTopDownParser, MultiTopDownParser.Comp> parser = BatchParser.of(prototype, 2)) {
+            for (MultiTopDownParser.Comp c: parser.parseAll(batch)) expected.add(c.pretty());
+            parser.parseAll(batch.stream(), c -> streamed.add(c.pretty()));
+        }
+        assertEquals(batch.size(), streamed.size());
+        assertEquals(expected, streamed);
+        for (int i = 0; i < batch.size(); i += 499) {
+            assertEquals(prototype.parseEntry(batch.get(i)).pretty(), streamed.get(i));
+        }
+    }
+
+    @Test
+    public void closeKeepsInterruptFlag() {
+        BatchParser<MultiTopDownParser, MultiTopDownParser.Comp> parser = BatchParser.of(new MultiTopDownParser(), 1);
+        Thread.currentThread().interrupt();
+        parser.close();
+        assertTrue(Thread.interrupted());
+    }
+}
@@ -0,0 +1,105 @@
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CorpusPipelineTest {
+    // 比 4 个线程同时在处理的批次 (16 × 256 行) 多得多, 读线程会因为许可用完而阻塞
+    private static final int LINES = 40000;
+    private Path input;
+
+    @Before
+    public void writeInput() throws IOException {
+        input = corpus(LINES);
+    }
+
+    private static Path corpus(int count) throws IOException {
+        Path path = Files.createTempFile("corpus", ".txt");
+        List<String> lines = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) lines.add("the cat catch a pen " + i);
+        Files.write(path, lines, StandardCharsets.UTF_8);
+        return path;
+    }
+
+    @After
+    public void deleteInput() throws IOException {
+        Files.deleteIfExists(input);
+    }
+
+    private static CorpusPipeline<Object, String> pipeline(int failAt) {
+        return new CorpusPipeline<>(Object::new, (parser, s) -> {
+            String last = s.get(s.size() - 1);
+            if (Integer.parseInt(last) == failAt) throw new IllegalArgumentException("bad sentence " + last);
+            return last;
+        }, 4);
+    }
+
+    private static void assertNoPipelineThreads() {
+        for (Thread t: Thread.getAllStackTraces().keySet()) {
+            assertFalse(t.getName() + " still alive", t.getName().startsWith("pipeline-") && t.isAlive());
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void writesInInputOrder() throws Exception {
+        List<String> written = new ArrayList<>();
+        assertEquals(LINES, pipeline(-1).run(input, written::add));
+        for (int i = 0; i < LINES; i++) assertEquals(String.valueOf(i), written.get(i));
+        assertNoPipelineThreads();
+    }
+
+    @Test(timeout = 30000)
+    public void parseFailureIsRethrownWithoutHanging() throws Exception {
+        for (int round = 0; round < 20; round++) {
+            try {
+                pipeline(300 + round * 997).run(input, result -> {});
+                fail();
+            } catch (IllegalArgumentException e) {
+                assertEquals("bad sentence " + (300 + round * 997), e.getMessage());
+            }
+            assertNoPipelineThreads();
+        }
+    }
+
+    // 输入很短, 出错时读线程已经放好了所有 END: 出错的线程不能拿走别的线程的 END
+    @Test(timeout = 30000)
+    public void lateParseFailureDoesNotStealEndMarkers() throws Exception {
+        Path small = corpus(3000);
+        try {
+            for (int round = 0; round < 50; round++) {
+                try {
+                    pipeline(2999 - round).run(small, result -> {});
+                    fail();
+                } catch (IllegalArgumentException e) {
+                    assertEquals("bad sentence " + (2999 - round), e.getMessage());
+                }
+                assertNoPipelineThreads();
+            }
+        } finally {
+            Files.delete(small);
+        }
+    }
+
+    @Test(timeout = 30000)
+    public void sinkFailureStopsAllThreads() throws Exception {
+        for (int round = 0; round < 20; round++) {
+            int[] count = {0};
+            try {
+                pipeline(-1).run(input, result -> {
+                    if (++count[0] == 1000) throw new IOException("disk full");
+                });
+                fail();
+            } catch (IOException e) {
+                assertEquals("disk full", e.getMessage());
+            }
+            assertNoPipelineThreads();
+        }
+    }
+}
@@ -0,0 +1,106 @@
+import static org.junit.Assert.*;
+
+import java.util.*;
+
+import org.junit.Test;
+
+public class EarleyParserTest {
+    private static final MultiTopDownParser.Type V = MultiTopDownParser.Type.V;
+    private static final MultiTopDownParser.Type ADJ = MultiTopDownParser.Type.ADJ;
+    private static final MultiTopDownParser.Type VP = MultiTopDownParser.Type.VP;
+
+    // 默认文法, 但 VP 的规则换成 vp, ADJ 变成只有一条空规则的非终结符
+    // 所以 "the cat" 有两种分析: NP -> ART N 和 NP -> ART ADJ N (ADJ 推出空串)
+    private static EarleyParser withEmptyAdj(List<List<MultiTopDownParser.Type>> vp) {
+        MultiTopDownParser grammar = new MultiTopDownParser();
+        grammar.rules.put(VP, vp);
+        grammar.rules.put(ADJ, Collections.singletonList(Collections.<MultiTopDownParser.Type>emptyList()));
+        grammar.compile();
+        return new EarleyParser(grammar);
+    }
+
+    private static List<String> words(String s) {
+        return Arrays.asList(s.split(" "));
+    }
+
+    @Test
+    public void forestKeepsEmptyDerivations() {
+        EarleyParser ep = withEmptyAdj(Collections.singletonList(Arrays.asList(V, ADJ)));
+        List<String> s = words("the cat catch");
+        MultiTopDownParser.Comp tree = ep.parseEntry(s);
+        assertTrue(tree instanceof MultiTopDownParser.Compound);
+
+        ParseForest forest = ep.parseForest(s);
+        assertFalse(forest.isEmpty());
+        assertEquals(2, forest.countTrees());
+        List<String> trees = new ArrayList<>();
+        for (MultiTopDownParser.Comp c: forest) trees.add(c.pretty());
+        assertEquals(2, trees.size());
+        assertTrue(trees.contains(tree.pretty()));
+        assertTrue(tree.pretty().contains("(ADJ )"));
+    }
+
+    @Test
+    public void emptyDerivationsAreCountedPerAlternative() {
+        EarleyParser ep = withEmptyAdj(Arrays.asList(Arrays.asList(V, ADJ), Arrays.asList(V, ADJ, ADJ)));
+        ParseForest forest = ep.parseForest(words("the cat catch"));
+        assertEquals(4, forest.countTrees());
+        Set<String> trees = new HashSet<>();
+        for (MultiTopDownParser.Comp c: forest) trees.add(c.pretty());
+        assertEquals(4, trees.size());
+    }
+
+    @Test
+    public void rejectedSentenceHasEmptyForest() {
+        EarleyParser ep = withEmptyAdj(Collections.singletonList(Arrays.asList(V, ADJ)));
+        ParseForest forest = ep.parseForest(words("the cat catch the"));
+        assertTrue(forest.isEmpty());
+        assertEquals(0, forest.countTrees());
+        assertFalse(forest.iterator().hasNext());
+    }
+
+    // 同样的 Compound / Atom 结构, 类型和单词都一样
+    private static void assertSameTree(MultiTopDownParser.Comp expected, MultiTopDownParser.Comp actual) {
+        assertEquals(expected.getClass(), actual.getClass());
+        if (expected instanceof MultiTopDownParser.Atom) {
+            assertEquals(((MultiTopDownParser.Atom) expected).type, ((MultiTopDownParser.Atom) actual).type);
+            assertEquals(((MultiTopDownParser.Atom) expected).value, ((MultiTopDownParser.Atom) actual).value);
+            return;
+        }
+        MultiTopDownParser.Compound e = (MultiTopDownParser.Compound) expected;
+        MultiTopDownParser.Compound a = (MultiTopDownParser.Compound) actual;
+        assertEquals(e.type, a.type);
+        assertEquals(e.e.size(), a.e.size());
+        for (int i = 0; i < e.e.size(); i++) assertSameTree(e.e.get(i), a.e.get(i));
+    }
+
+    @Test
+    public void sameTreesAsMultiTopDownParser() {
+        MultiTopDownParser parser = new MultiTopDownParser();
+        EarleyParser ep = new EarleyParser(new MultiTopDownParser());
+        List<List<String>> sentences = new ArrayList<>();
+        for (String s: new String[]{"the ugly cat receive a beautiful pen", "a cat catch", "the dog beats the boy",
+                "a beautiful boy catch the pen"}) {
+            sentences.add(words(s));
+        }
+        for (List<String> s: sentences) {
+            MultiTopDownParser.Comp tree = parser.parseEntry(s);
+            assertTrue(tree instanceof MultiTopDownParser.Compound);
+            assertSameTree(tree, ep.parseEntry(s));
+        }
+        // 随机的句子, 大约 1/4 打乱了词序
+        for (List<String> s: BenchmarkInputs.sentences(500, 42)) assertSameTree(parser.parseEntry(s), ep.parseEntry(s));
+    }
+
+    @Test
+    public void rejectedSentenceGivesTheSameErrorAtom() {
+        MultiTopDownParser parser = new MultiTopDownParser();
+        EarleyParser ep = new EarleyParser(new MultiTopDownParser());
+        for (String s: new String[]{"the cat the dog", "cat the receive", "receive"}) {
+            MultiTopDownParser.Comp tree = ep.parseEntry(words(s));
+            assertTrue(s, tree instanceof MultiTopDownParser.Atom);
+            assertEquals("(ERROR error)", tree.pretty());
+            assertSameTree(parser.parseEntry(words(s)), tree);
+        }
+    }
+}
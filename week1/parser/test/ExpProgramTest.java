@@ -0,0 +1,76 @@
+import static org.junit.Assert.*;
+
+import java.util.*;
+
+import org.junit.Test;
+
+public class ExpProgramTest {
+    private final ArithmeticParser parser = new ArithmeticParser();
+
+    @Test
+    public void runMatchesEvaluate() {
+        List<String> expressions = new ArrayList<>(Arrays.asList(
+                "1", "1-2-3", "8/2/2", "1+2*3", "7/2*2+7-7/2", "(1+2)*(3-(4/2))-5", "2147483647+1", "0-7/2"));
+        expressions.addAll(BenchmarkInputs.expressions(50, 64, 4, 42));
+        for (String s: expressions) {
+            ArithmeticParser.Exp e = parser.parse(s);
+            assertNull(parser.error);
+            ExpProgram program = ExpProgram.compile(e, false);
+            ExpProgram folded = ExpProgram.compile(e);
+            assertEquals(s, e.evaluate(), program.run());
+            assertEquals(s, e.evaluate(), folded.run());
+            // 只有数字, 折叠以后就是一条 PUSH
+            assertEquals(s, "PUSH " + e.evaluate(), folded.toString());
+        }
+        assertEquals("PUSH 1 PUSH 2 PUSH 3 MUL ADD", ExpProgram.compile(parser.parse("1+(2*3)"), false).toString());
+    }
+
+    @Test
+    public void divisionByConstantZeroIsNotFolded() {
+        ExpProgram program = ExpProgram.compile(parser.parse("1/0"));
+        assertEquals("PUSH 1 PUSH 0 DIV", program.toString());
+        // 3-3 折叠成 0, 但除法留到运行时
+        ArithmeticParser.Exp e = parser.parse("2+6/(3-3)");
+        ExpProgram folded = ExpProgram.compile(e);
+        assertEquals("PUSH 2 PUSH 6 PUSH 0 DIV ADD", folded.toString());
+        try {
+            folded.run();
+            fail();
+        } catch (ArithmeticException expected) {
+            // 和 Exp.evaluate() 一样
+        }
+        try {
+            e.evaluate();
+            fail();
+        } catch (ArithmeticException expected) {
+            // 除以 0
+        }
+    }
+
+    @Test
+    public void stackIsBigEnoughForDeepInput() {
+        int n = 100000;
+        // 1+1+1+...: Plus 一直向左嵌套, 栈最多两层
+        StringBuilder left = new StringBuilder("1");
+        for (int i = 1; i < n; i++) left.append("+1");
+        ExpProgram program = ExpProgram.compile(parser.parseIterative(left), false);
+        assertEquals(2, program.maxStack);
+        assertEquals(n, program.run());
+
+        // ((((1)*2+1)*2+1)...: 括号向左嵌套, 栈也只有两层
+        program = ExpProgram.compile(parser.parseIterative(BenchmarkInputs.nested(n)), false);
+        assertEquals(2, program.maxStack);
+        assertEquals(-1, program.run());
+
+        // 1+(1+(1+...)): 向右嵌套, 每一层都要留一个操作数
+        StringBuilder right = new StringBuilder();
+        for (int i = 1; i < n; i++) right.append("1+(");
+        right.append('1');
+        for (int i = 1; i < n; i++) right.append(')');
+        program = ExpProgram.compile(parser.parseIterative(right), false);
+        assertEquals(n, program.maxStack);
+        assertTrue(program.newStack().length >= program.maxStack);
+        assertEquals(n, program.run(program.newStack()));
+        assertEquals("PUSH " + n, ExpProgram.compile(parser.parseIterative(right)).toString());
+    }
+}
@@ -0,0 +1,129 @@
+import static org.junit.Assert.*;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class GrammarTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static List<String> words(String s) {
+        return Arrays.asList(s.split(" "));
+    }
+
+    // 报出来的环要是左角关系里真的走得通的路径, 不是整个强连通分量
+    @Test
+    public void leftRecursionReportsACyclePath() {
+        Grammar grammar = Grammar.parse("S -> A N\nA -> B V | C | N\nB -> S ART\nC -> A ADJ\n");
+        assertTrue(grammar.leftRecursive);
+        assertEquals(Collections.singletonList("left recursion: S -> A -> B -> S"), grammar.problems);
+
+        Grammar self = Grammar.parse("S -> NP VP\nNP -> NP N | ART N\nVP -> V\n");
+        assertEquals(Collections.singletonList("left recursion: NP -> NP"), self.problems);
+    }
+
+    // 空规则不算左递归, requireTopDown 接受, checker 能回溯
+    @Test
+    public void checkerLoadsEmptyRules() {
+        Grammar ok = Grammar.parse("S -> NP VP\nNP -> ART N\nVP -> V ADJ\nADJ -> ε\n");
+        assertFalse(ok.leftRecursive);
+        ok.requireTopDown();
+        BackTracingTopDownChecker checker = new BackTracingTopDownChecker(Collections.emptyList());
+        checker.load(ok);
+        assertEquals(BackTracingTopDownChecker.Outcome.ACCEPT, checker.check(words("the cat catch")));
+        assertEquals(BackTracingTopDownChecker.Outcome.REJECT, checker.check(words("the cat catch the")));
+    }
+
+    // 符号不是 Type 里的名字: parser 直接用 grammar.compiled, names 和 start
+    @Test
+    public void parsersUseSymbolsOutsideType() {
+        Grammar grammar = Grammar.parse("SENT -> SUBJ PRED\nSUBJ -> ART NOUNISH\nNOUNISH -> N | ADJ NOUNISH\n"
+                + "PRED -> V SUBJ | V\n");
+        assertEquals(Arrays.asList("ART", "N", "ADJ", "V"), Arrays.asList(grammar.names).subList(0, grammar.terminals));
+        assertEquals("SENT", grammar.names[grammar.start]);
+        List<String> s = words("the ugly beautiful cat receive a pen");
+        String expected = "(SENT (SUBJ (ART the) (NOUNISH (ADJ ugly) (NOUNISH (ADJ beautiful) (NOUNISH (N cat) ) ) ) ) "
+                + "(PRED (V receive) (SUBJ (ART a) (NOUNISH (N pen) ) ) ) )";
+
+        MultiTopDownParser parser = new MultiTopDownParser();
+        parser.load(grammar);
+        assertSame(grammar.compiled, parser.grammar);
+        assertEquals(expected, parser.parseEntry(s).pretty());
+        assertEquals(expected, parser.parseCky(s).pretty());
+        assertEquals(expected, parser.parseViterbi(s).pretty());
+        assertEquals(expected, new EarleyParser(parser).parseEntry(s).pretty());
+        assertEquals("(ERROR error)", parser.parseEntry(words("cat the receive")).pretty());
+
+        BackTracingTopDownChecker checker = new BackTracingTopDownChecker(Collections.emptyList());
+        checker.load(grammar);
+        assertSame(grammar.compiled, checker.grammar);
+        assertTrue(checker.checkEntry(s));
+        checker.useCky = true;
+        assertTrue(checker.checkEntry(s));
+        assertFalse(checker.checkEntry(words("the cat receive a")));
+
+        AdvancedTopDownParser advanced = new AdvancedTopDownParser();
+        advanced.load(Grammar.parse("SENT -> SUBJ PRED\nSUBJ -> ART N\nPRED -> V SUBJ\n"));
+        assertEquals("(SENT (SUBJ (ART the) (N cat) ) (PRED (V catch) (SUBJ (ART a) (N pen) ) ) )",
+                advanced.parseEntry(words("the cat catch a pen")).pretty());
+    }
+
+    // 几千个非终结符: 从缓存读回来的文法直接给 parser 用, FIRST 集也在缓存里
+    @Test
+    public void thousandsOfNonterminalsLoadFromCache() throws Exception {
+        int count = 3000;
+        StringBuilder text = new StringBuilder("S -> X0\n");
+        for (int i = 0; i < count; i++) text.append("X").append(i).append(" -> ADJ X").append(i + 1).append(" | N\n");
+        text.append("X").append(count).append(" -> N\n");
+        Path source = folder.newFile("big.txt").toPath();
+        Files.write(source, text.toString().getBytes(StandardCharsets.UTF_8));
+        Path cacheDirectory = folder.getRoot().toPath().resolve("cache");
+        Grammar.load(source, cacheDirectory);
+        Grammar grammar = Grammar.load(source, cacheDirectory);
+        assertEquals(count + 2 + 2, grammar.names.length);
+        assertTrue(grammar.compiled.bitmaps);
+
+        List<String> s = new ArrayList<>();
+        for (int i = 0; i < 50; i++) s.add("ugly");
+        s.add("cat");
+        MultiTopDownParser parser = new MultiTopDownParser();
+        parser.load(grammar);
+        MultiTopDownParser.Comp tree = parser.parseEntry(s);
+        assertTrue(tree.pretty().startsWith("(S (X0 (ADJ ugly) (X1 (ADJ ugly) "));
+        assertTrue(tree.pretty().contains("(X50 (N cat) )"));
+
+        BackTracingTopDownChecker checker = new BackTracingTopDownChecker(Collections.emptyList());
+        checker.load(grammar);
+        assertTrue(checker.checkEntry(s));
+        // CKY 放不下这么多符号, 回溯
+        checker.useCky = true;
+        assertTrue(checker.checkEntry(s));
+        assertFalse(checker.checkEntry(s.subList(0, 50)));
+    }
+
+    @Test
+    public void cacheIsWrittenToTheCacheDirectory() throws Exception {
+        Path source = folder.newFile("grammar.txt").toPath();
+        Files.write(source, "S -> NP VP\nNP -> ART N\nVP -> V\n".getBytes(StandardCharsets.UTF_8));
+        Path cacheDirectory = folder.getRoot().toPath().resolve("cache");
+
+        Grammar parsed = Grammar.load(source, cacheDirectory);
+        Path cache = Grammar.cachePath(source, cacheDirectory);
+        assertTrue(Files.exists(cache));
+        assertFalse(Files.exists(source.resolveSibling("grammar.txt.bin")));
+        try (java.util.stream.Stream<Path> files = Files.list(cacheDirectory)) {
+            assertEquals(1, files.count());
+        }
+
+        Grammar cached = Grammar.load(source, cacheDirectory);
+        assertArrayEquals(parsed.names, cached.names);
+        assertArrayEquals(parsed.compiled.rhs, cached.compiled.rhs);
+        assertArrayEquals(parsed.weights, cached.weights, 0);
+    }
+}
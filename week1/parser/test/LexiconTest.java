@@ -0,0 +1,43 @@
+import static org.junit.Assert.*;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+
+import org.junit.Test;
+
+public class LexiconTest {
+
+    // 内置的词表和 classpath 上的 lexicon.txt 要和 input/lexicon.txt 一致
+    @Test
+    public void fallbacksMatchDefaultFile() throws IOException {
+        HashLexicon file = Lexicon.loadText(Paths.get(Lexicon.DEFAULT_PATH));
+        HashLexicon builtin = Lexicon.loadText(new BufferedReader(new StringReader(Lexicon.BUILTIN)), "builtin");
+        HashLexicon resource;
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                Lexicon.class.getResourceAsStream(Lexicon.RESOURCE), StandardCharsets.UTF_8))) {
+            resource = Lexicon.loadText(reader, "resource");
+        }
+        assertEquals(file.size(), builtin.size());
+        assertEquals(file.size(), resource.size());
+        for (String word: file.keys) {
+            if (word == null) continue;
+            assertEquals(word, file.lookup(word), builtin.lookup(word));
+            assertEquals(word, file.lookup(word), resource.lookup(word));
+        }
+        assertEquals(file.tags(), builtin.tags());
+    }
+
+    @Test
+    public void errorsNameTheSource() {
+        try {
+            Lexicon.loadText(new BufferedReader(new StringReader("cat,N\ndog")), "builtin");
+            fail();
+        } catch (IOException e) {
+            assertEquals("builtin:2: expected word,TAG[,TAG...]", e.getMessage());
+        }
+    }
+}
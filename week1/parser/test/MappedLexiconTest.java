@@ -0,0 +1,73 @@
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class MappedLexiconTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path compileDefault() throws IOException {
+        Path binary = folder.getRoot().toPath().resolve("lexicon.bin");
+        LexiconCompiler.compile(Paths.get(Lexicon.DEFAULT_PATH), binary);
+        return binary;
+    }
+
+    @Test
+    public void roundTripMatchesHashLexicon() throws IOException {
+        HashLexicon text = Lexicon.loadText(Paths.get(Lexicon.DEFAULT_PATH));
+        Lexicon binary = Lexicon.load(compileDefault());
+        assertTrue(binary instanceof MappedLexicon);
+        assertEquals(text.tags(), binary.tags());
+        assertEquals(text.size(), binary.size());
+        for (String word: text.keys) {
+            if (word == null) continue;
+            assertNotEquals(word, 0, binary.lookup(word));
+            assertEquals(word, text.lookup(word), binary.lookup(word));
+            // CharSequence 也可以, 不用先转成 String
+            assertEquals(word, text.lookup(word), binary.lookup(new StringBuilder(word)));
+        }
+        for (String word: new String[]{"", "zebra", "cats", "ca", "The"}) {
+            assertEquals(word, 0, text.lookup(word));
+            assertEquals(word, 0, binary.lookup(word));
+        }
+    }
+
+    // 截断在文件头, slot 区, 字符串池里
+    @Test
+    public void truncatedFilesAreRejected() throws IOException {
+        Path binary = compileDefault();
+        byte[] bytes = Files.readAllBytes(binary);
+        for (int length: new int[]{6, 12, bytes.length / 2, bytes.length - 2}) {
+            Path truncated = folder.getRoot().toPath().resolve("truncated" + length + ".bin");
+            Files.write(truncated, Arrays.copyOf(bytes, length));
+            try {
+                MappedLexicon.open(truncated);
+                fail("length " + length);
+            } catch (IOException e) {
+                assertTrue(e.getMessage(), e.getMessage().startsWith(truncated.toString()));
+            }
+        }
+    }
+
+    @Test
+    public void wrongMagicIsRejected() throws IOException {
+        Path binary = compileDefault();
+        byte[] bytes = Files.readAllBytes(binary);
+        bytes[3] ^= 1;
+        Files.write(binary, bytes);
+        try {
+            MappedLexicon.open(binary);
+            fail();
+        } catch (IOException e) {
+            assertEquals(binary + ": not a binary lexicon", e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,70 @@
+import static org.junit.Assert.*;
+
+import java.util.*;
+
+import org.junit.Test;
+
+public class MultiTopDownParserTest {
+    private static List<String> words(String s) {
+        return Arrays.asList(s.split(" "));
+    }
+
+    // 增量分析的 parser 做一次修改, 结果要和新的 parser 对修改后的句子 parseEntry 一样
+    private static void edit(MultiTopDownParser incremental, MultiTopDownParser fresh, List<String> sentence,
+                             int position, int removed, String inserted) {
+        List<String> words = inserted.isEmpty() ? Collections.<String>emptyList() : words(inserted);
+        List<String> expected = sentence.subList(position, position + removed);
+        expected.clear();
+        expected.addAll(words);
+        String result = incremental.edit(position, removed, words).pretty();
+        assertEquals(String.join(" ", sentence), fresh.parseEntry(sentence).pretty(), result);
+    }
+
+    @Test
+    public void editsMatchFreshParse() {
+        // the boy beats the pen receive the cat receive the cat ...
+        MultiTopDownParser incremental = BenchmarkInputs.chainParser();
+        MultiTopDownParser fresh = BenchmarkInputs.chainParser();
+        List<String> s = new ArrayList<>(BenchmarkInputs.chain(31));
+        assertEquals(fresh.parseEntry(s).pretty(), incremental.parseIncremental(s).pretty());
+
+        // 开头: 替换, 插入, 删除
+        edit(incremental, fresh, s, 0, 1, "a");
+        edit(incremental, fresh, s, 1, 0, "ugly");
+        edit(incremental, fresh, s, 1, 1, "");
+        edit(incremental, fresh, s, 0, 2, "the dog");
+        // 中间: 替换一个名词, 插入和删除一段 V NP
+        edit(incremental, fresh, s, 16, 1, "dog");
+        edit(incremental, fresh, s, 14, 0, "catch a beautiful pen");
+        edit(incremental, fresh, s, 14, 4, "");
+        edit(incremental, fresh, s, 14, 3, "");
+        // 不认识的词在 tokenize 时就跳过了
+        edit(incremental, fresh, s, 15, 0, "zzz");
+        edit(incremental, fresh, s, 15, 1, "");
+        // 中间改成不合法, 再改回来
+        edit(incremental, fresh, s, 15, 1, "receive");
+        edit(incremental, fresh, s, 15, 1, "the");
+        // 结尾: 删掉最后一个名词 (不合法), 再接回来, 追加
+        edit(incremental, fresh, s, s.size() - 1, 1, "");
+        edit(incremental, fresh, s, s.size(), 0, "pen");
+        edit(incremental, fresh, s, s.size(), 0, "receive the ugly boy receive");
+        edit(incremental, fresh, s, s.size() - 4, 4, "");
+        assertTrue(incremental.edit(0, 0, Collections.<String>emptyList()) instanceof MultiTopDownParser.Compound);
+    }
+
+    @Test
+    public void editsMatchFreshParseOnDefaultGrammar() {
+        MultiTopDownParser incremental = new MultiTopDownParser();
+        MultiTopDownParser fresh = new MultiTopDownParser();
+        List<String> s = new ArrayList<>(words("the ugly cat receive a beautiful pen"));
+        assertEquals(fresh.parseEntry(s).pretty(), incremental.parseIncremental(s).pretty());
+        edit(incremental, fresh, s, 1, 1, "");
+        edit(incremental, fresh, s, 3, 1, "");
+        edit(incremental, fresh, s, 3, 2, "the dog");
+        edit(incremental, fresh, s, 3, 2, "");
+        edit(incremental, fresh, s, 0, 2, "a beautiful boy");
+        edit(incremental, fresh, s, 3, 1, "catch");
+        edit(incremental, fresh, s, s.size(), 0, "the pen");
+        edit(incremental, fresh, s, 0, s.size(), "the cat");
+    }
+}
@@ -0,0 +1,35 @@
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+public class PackratTableTest {
+
+    @Test
+    public void countersArePerParse() {
+        MultiTopDownParser parser = new MultiTopDownParser();
+        parser.enablePackrat(64);
+        List<String> s = Arrays.asList("the cat catch a pen".split(" "));
+        parser.parseEntry(s);
+        long hits = parser.memo.hits;
+        long misses = parser.memo.misses;
+        assertTrue(misses > 0);
+        parser.parseEntry(s);
+        assertEquals(hits, parser.memo.hits);
+        assertEquals(misses, parser.memo.misses);
+    }
+
+    @Test
+    public void editStartsNewCounters() {
+        MultiTopDownParser parser = new MultiTopDownParser();
+        List<String> s = Arrays.asList("the cat catch a pen".split(" "));
+        parser.parseIncremental(s);
+        long misses = parser.memo.misses;
+        parser.edit(4, 1, Arrays.asList("dog"));
+        // 只重新分析改动的部分, 没受影响的成分直接命中
+        assertTrue(parser.memo.misses < misses);
+        assertTrue(parser.memo.hits > 0);
+    }
+}
@@ -0,0 +1,80 @@
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.*;
+
+import org.junit.Test;
+
+public class TreeNodeTest {
+    private static final String DEFAULT = "the ugly cat receive a beautiful pen";
+
+    // 原来的实现: 每个子节点拼一个新的前缀字符串
+    private static void oldPrint(TreeNode node, StringBuilder buffer, String prefix, String childrenPrefix) {
+        buffer.append(prefix);
+        buffer.append(node.name);
+        buffer.append('\n');
+        for (Iterator<TreeNode> it = node.children.iterator(); it.hasNext();) {
+            TreeNode next = it.next();
+            if (it.hasNext()) {
+                oldPrint(next, buffer, childrenPrefix + "├── ", childrenPrefix + "│   ");
+            } else {
+                oldPrint(next, buffer, childrenPrefix + "└── ", childrenPrefix + "    ");
+            }
+        }
+    }
+
+    // 原来的 pretty(): 每一层一个 StringBuilder
+    private static String oldPretty(MultiTopDownParser.Comp c) {
+        if (c instanceof MultiTopDownParser.Atom) {
+            MultiTopDownParser.Atom atom = (MultiTopDownParser.Atom) c;
+            return "(" + atom.type + " " + atom.value + ")";
+        }
+        MultiTopDownParser.Compound compound = (MultiTopDownParser.Compound) c;
+        StringBuilder s = new StringBuilder("(");
+        s.append(compound.type);
+        s.append(" ");
+        for (MultiTopDownParser.Comp comp: compound.e) {
+            s.append(oldPretty(comp));
+            s.append(" ");
+        }
+        s.append(")");
+        return s.toString();
+    }
+
+    private static MultiTopDownParser.Comp parse(String s) {
+        return new MultiTopDownParser().parseEntry(Arrays.asList(s.split(" ")));
+    }
+
+    @Test
+    public void printMatchesOldRendering() throws IOException {
+        for (String s: new String[]{DEFAULT, "a cat catch", "the cat the dog"}) {
+            MultiTopDownParser.Comp tree = parse(s);
+            assertEquals(oldPretty(tree), tree.pretty());
+
+            TreeNode node = tree.getNode();
+            StringBuilder expected = new StringBuilder();
+            oldPrint(node, expected, "", "");
+            StringWriter out = new StringWriter();
+            node.print(out);
+            assertEquals(expected.toString(), out.toString());
+            assertEquals(expected.toString(), node.toString());
+        }
+        assertEquals("(S (NP (ART the) (ADJ ugly) (N cat) ) (VP (V receive) (NP (ART a) (ADJ beautiful) (N pen) ) ) )",
+                parse(DEFAULT).pretty());
+    }
+
+    @Test
+    public void bracketWriterWritesOneTreePerLine() throws IOException {
+        StringWriter out = new StringWriter();
+        try (BracketWriter writer = new BracketWriter(out)) {
+            writer.write(parse(DEFAULT));
+            writer.write(parse("a cat catch"));
+            writer.write(parse("the cat the dog"));
+            assertEquals(3, writer.trees);
+        }
+        assertEquals("(S (NP (ART the) (ADJ ugly) (N cat)) (VP (V receive) (NP (ART a) (ADJ beautiful) (N pen))))\n"
+                + "(S (NP (ART a) (N cat)) (VP (V catch)))\n"
+                + "(ERROR error)\n", out.toString());
+    }
+}
@@ -0,0 +1,204 @@
+import static org.junit.Assert.*;
+
+import java.util.*;
+
+import org.junit.Test;
+
+public class ViterbiParserTest {
+    private static final MultiTopDownParser.Type S = MultiTopDownParser.Type.S;
+    private static final MultiTopDownParser.Type NP = MultiTopDownParser.Type.NP;
+    private static final MultiTopDownParser.Type VP = MultiTopDownParser.Type.VP;
+    private static final double EPSILON = 1e-9;
+
+    private static List<String> words(String s) {
+        return Arrays.asList(s.split(" "));
+    }
+
+    /*
+    * BenchmarkInputs.weightedParser 的文法:
+    *   S  -> NP VP [0.9] | VP [0.1]
+    *   NP -> NP NP [0.1] | ART N [0.5] | ART ADJ N [0.2] | N [0.2]
+    *   VP -> V NP [0.6] | VP NP [0.2] | V [0.2]
+    * */
+    private static MultiTopDownParser weighted() {
+        return BenchmarkInputs.weightedParser();
+    }
+
+    // 按 parser.rules / weights 算一棵树的 log 概率, 找不到对应的规则时返回 NaN
+    static double score(MultiTopDownParser parser, MultiTopDownParser.Comp c) {
+        if (!(c instanceof MultiTopDownParser.Compound)) return 0;
+        MultiTopDownParser.Compound compound = (MultiTopDownParser.Compound) c;
+        MultiTopDownParser.Type type = MultiTopDownParser.Type.valueOf(compound.type);
+        List<String> children = new ArrayList<>();
+        double sum = 0;
+        for (MultiTopDownParser.Comp child: compound.e) {
+            children.add(child instanceof MultiTopDownParser.Compound
+                    ? ((MultiTopDownParser.Compound) child).type : ((MultiTopDownParser.Atom) child).type);
+            sum += score(parser, child);
+        }
+        List<List<MultiTopDownParser.Type>> alternatives = parser.rules.get(type);
+        for (int i = 0; i < alternatives.size(); i++) {
+            List<String> rhs = new ArrayList<>();
+            for (MultiTopDownParser.Type t: alternatives.get(i)) rhs.add(t.name());
+            if (rhs.equals(children)) return sum + parser.weights.get(type)[i];
+        }
+        return Double.NaN;
+    }
+
+    // 树的叶子按顺序拼起来
+    private static List<String> leaves(MultiTopDownParser.Comp c, List<String> out) {
+        if (c instanceof MultiTopDownParser.Atom) {
+            out.add(((MultiTopDownParser.Atom) c).value);
+        } else {
+            for (MultiTopDownParser.Comp child: ((MultiTopDownParser.Compound) c).e) leaves(child, out);
+        }
+        return out;
+    }
+
+    // 直接用 ViterbiParser 算最好的分数, 每个词只有一个词性
+    private static double bestScore(MultiTopDownParser parser, MultiTopDownParser.Type... tags) {
+        ViterbiParser viterbi = new ViterbiParser(parser.grammar, parser.ruleWeights, parser.start,
+                Integer.MAX_VALUE, Double.POSITIVE_INFINITY);
+        long[] bits = new long[tags.length];
+        for (int i = 0; i < tags.length; i++) bits[i] = 1L << tags[i].ordinal();
+        return viterbi.score(bits, tags.length);
+    }
+
+    @Test
+    public void bestTreeMatchesHandComputedScore() {
+        MultiTopDownParser parser = weighted();
+        // VP 的四种分法里最好的是 VP -> VP NP, VP -> V NP: 0.2 * (0.6 * 0.5) * 0.5 = 0.03
+        // 整棵树 0.9 * 0.5 * 0.03 = 0.0135
+        MultiTopDownParser.Comp tree = parser.parseViterbi(words("the boy receive the dog the cat"));
+        assertEquals("(S (NP (ART the) (N boy) ) (VP (VP (V receive) (NP (ART the) (N dog) ) ) "
+                + "(NP (ART the) (N cat) ) ) )", tree.pretty());
+        assertEquals(Math.log(0.0135), score(parser, tree), EPSILON);
+
+        MultiTopDownParser.Type ART = MultiTopDownParser.Type.ART;
+        MultiTopDownParser.Type N = MultiTopDownParser.Type.N;
+        MultiTopDownParser.Type V = MultiTopDownParser.Type.V;
+        assertEquals(Math.log(0.0135), bestScore(parser, ART, N, V, ART, N, ART, N), EPSILON);
+
+        // VP -> VP NP 的概率调低以后, V NP 加上 NP -> NP NP 更好: 0.7 * 0.1 * 0.5 * 0.5
+        parser.weights.put(VP, new double[]{Math.log(0.7), Math.log(0.05), Math.log(0.25)});
+        parser.compile();
+        tree = parser.parseViterbi(words("the boy receive the dog the cat"));
+        assertEquals("(S (NP (ART the) (N boy) ) (VP (V receive) (NP (NP (ART the) (N dog) ) "
+                + "(NP (ART the) (N cat) ) ) ) )", tree.pretty());
+        assertEquals(Math.log(0.9 * 0.5 * 0.7 * 0.1 * 0.5 * 0.5), score(parser, tree), EPSILON);
+    }
+
+    @Test
+    public void unaryChainsAddTheirWeights() {
+        MultiTopDownParser parser = weighted();
+        MultiTopDownParser.Type N = MultiTopDownParser.Type.N;
+        MultiTopDownParser.Type V = MultiTopDownParser.Type.V;
+        // S -> VP -> V
+        MultiTopDownParser.Comp tree = parser.parseViterbi(words("receive"));
+        assertEquals("(S (VP (V receive) ) )", tree.pretty());
+        assertEquals(Math.log(0.1 * 0.2), bestScore(parser, V), EPSILON);
+        assertEquals(Math.log(0.1 * 0.2), score(parser, tree), EPSILON);
+        // S -> NP VP, NP -> N, VP -> V
+        tree = parser.parseViterbi(words("cat receive"));
+        assertEquals("(S (NP (N cat) ) (VP (V receive) ) )", tree.pretty());
+        assertEquals(Math.log(0.9 * 0.2 * 0.2), bestScore(parser, N, V), EPSILON);
+        assertEquals(Math.log(0.9 * 0.2 * 0.2), score(parser, tree), EPSILON);
+
+        // 再加一层单元规则 S -> VP -> V 以外的 S -> NP: "cat" 只能是 S -> NP -> N
+        parser.rules.put(S, Arrays.asList(Arrays.asList(NP, VP), Collections.singletonList(VP),
+                Collections.singletonList(NP)));
+        parser.weights.put(S, new double[]{Math.log(0.8), Math.log(0.1), Math.log(0.1)});
+        parser.compile();
+        tree = parser.parseViterbi(words("cat"));
+        assertEquals("(S (NP (N cat) ) )", tree.pretty());
+        assertEquals(Math.log(0.1 * 0.2), score(parser, tree), EPSILON);
+        assertEquals(Math.log(0.1 * 0.2), bestScore(parser, N), EPSILON);
+    }
+
+    @Test
+    public void zeroBeamWidthIsExact() {
+        MultiTopDownParser exact = weighted();
+        MultiTopDownParser unlimited = weighted();
+        unlimited.setBeam(0, Double.POSITIVE_INFINITY);
+        for (List<String> s: BenchmarkInputs.ambiguous(20, 12, 42)) {
+            assertEquals(exact.parseViterbi(s).pretty(), unlimited.parseViterbi(s).pretty());
+        }
+    }
+
+    @Test
+    public void tightBeamPrunesButReturnsValidTrees() {
+        // catch 既是 N 又是 V, 一个词的格子里有 N, V, NP, VP, S; 只留 3 个时 NP 被剪掉
+        // 精确的是 S -> NP VP: 0.9 * 0.2 * 0.2, 剪枝以后只剩 S -> VP, VP -> V NP: 0.1 * 0.6 * 0.2
+        MultiTopDownParser beam = weighted();
+        beam.setBeam(3, Double.POSITIVE_INFINITY);
+        List<String> s = words("catch catch");
+        MultiTopDownParser.Comp exact = weighted().parseViterbi(s);
+        MultiTopDownParser.Comp pruned = beam.parseViterbi(s);
+        assertEquals("(S (NP (N catch) ) (VP (V catch) ) )", exact.pretty());
+        assertEquals("(S (VP (V catch) (NP (N catch) ) ) )", pruned.pretty());
+        assertEquals(Math.log(0.1 * 0.6 * 0.2), score(beam, pruned), EPSILON);
+
+        // 按宽度和阈值剪枝, 每个句子还是得到一棵合法的树, 分数不超过精确的
+        MultiTopDownParser reference = weighted();
+        beam.setBeam(2, 2.0);
+        for (List<String> x: BenchmarkInputs.ambiguous(20, 12, 42)) {
+            MultiTopDownParser.Comp tree = beam.parseViterbi(x);
+            assertTrue(tree.pretty(), tree instanceof MultiTopDownParser.Compound);
+            assertEquals(x, leaves(tree, new ArrayList<>()));
+            double treeScore = score(beam, tree);
+            assertFalse(Double.isNaN(treeScore));
+            assertTrue(treeScore <= score(reference, reference.parseViterbi(x)) + EPSILON);
+        }
+    }
+
+    @Test
+    public void kBestIsSortedDistinctAndStartsWithViterbi() {
+        MultiTopDownParser parser = weighted();
+        for (List<String> s: BenchmarkInputs.ambiguous(5, 8, 42)) {
+            List<MultiTopDownParser.Comp> trees = parser.parseKBest(s, 50);
+            assertFalse(trees.isEmpty());
+            assertEquals(parser.parseViterbi(s).pretty(), trees.get(0).pretty());
+            Set<String> distinct = new HashSet<>();
+            double previous = Double.POSITIVE_INFINITY;
+            for (MultiTopDownParser.Comp c: trees) {
+                assertTrue(distinct.add(c.pretty()));
+                assertEquals(s, leaves(c, new ArrayList<>()));
+                double score = score(parser, c);
+                assertTrue(score <= previous + EPSILON);
+                previous = score;
+            }
+        }
+    }
+
+    @Test
+    public void kBestReturnsAllTreesWhenKIsLarger() {
+        MultiTopDownParser parser = weighted();
+        EarleyParser earley = new EarleyParser(parser);
+        // "receive the dog the cat" 的 VP 有 4 种分法
+        List<String> s = words("the boy receive the dog the cat");
+        assertEquals(4, earley.parseForest(s).countTrees());
+        assertEquals(4, parser.parseKBest(s, 100).size());
+        assertEquals(2, parser.parseKBest(s, 2).size());
+        for (List<String> x: BenchmarkInputs.ambiguous(5, 6, 42)) {
+            long count = earley.parseForest(x).countTrees();
+            assertEquals(count, parser.parseKBest(x, (int) count + 10).size());
+        }
+        assertTrue(parser.parseKBest(words("the cat the dog"), 10).isEmpty());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void kBestRejectsUnaryCycles() {
+        // NP -> VP, VP -> NP: 同一个片段上有无穷多棵树
+        MultiTopDownParser parser = weighted();
+        parser.rules.put(NP, Arrays.asList(Arrays.asList(MultiTopDownParser.Type.ART, MultiTopDownParser.Type.N),
+                Collections.singletonList(VP)));
+        parser.weights.put(NP, new double[]{Math.log(0.9), Math.log(0.1)});
+        parser.rules.put(VP, Arrays.asList(Collections.singletonList(MultiTopDownParser.Type.V),
+                Collections.singletonList(NP)));
+        parser.weights.put(VP, new double[]{Math.log(0.9), Math.log(0.1)});
+        parser.compile();
+        List<String> s = words("the cat receive");
+        assertTrue(parser.parseViterbi(s) instanceof MultiTopDownParser.Compound);
+        parser.parseKBest(s, 2);
+    }
+}